@@ -1,10 +1,12 @@
 // © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
 package com.github.lucafilipozzi.keycloak.authentication.authenticators;
 
-import com.google.common.collect.Sets;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import com.github.lucafilipozzi.keycloak.protocol.oidc.mappers.ImpersonatorRolesProtocolMapper;
+import com.github.lucafilipozzi.keycloak.services.managers.IdentityCookies;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import lombok.extern.jbosslog.JBossLog;
@@ -12,16 +14,21 @@ import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.AuthenticationFlowError;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.authentication.authenticators.browser.CookieAuthenticator;
+import org.keycloak.authentication.authenticators.util.AcrStore;
+import org.keycloak.common.util.Time;
 import org.keycloak.models.ClientModel;
+import org.keycloak.models.Constants;
 import org.keycloak.models.ImpersonationSessionNote;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.RoleModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
-import org.keycloak.models.utils.RoleUtils;
+import org.keycloak.protocol.LoginProtocol;
 import org.keycloak.services.managers.AuthenticationManager;
 import org.keycloak.services.managers.AuthenticationManager.AuthResult;
+import org.keycloak.services.messages.Messages;
+import org.keycloak.sessions.AuthenticationSessionModel;
 
 @JBossLog
 public class ExtendedCookieAuthenticator extends CookieAuthenticator implements Authenticator {
@@ -29,11 +36,18 @@ public class ExtendedCookieAuthenticator extends CookieAuthenticator implements
 
   private static final String IMPERSONATOR_ROLES = "IMPERSONATOR_ROLES";
 
+  // per client: the role mapping version at which the decision was made, '/', the time at which it
+  // was made, '/', IMPERSONATOR_ROLES
+  private static final String IMPERSONATOR_DECISION_PREFIX = "IMPERSONATOR_DECISION.";
+
+  // bounds how long a decision outlives a change whose notification this node missed
+  private static final long DECISION_MAX_AGE = TimeUnit.MINUTES.toMillis(1);
+
   @Override
   public void authenticate(AuthenticationFlowContext context) {
     RealmModel realm = context.getRealm();
     KeycloakSession session = context.getSession();
-    AuthResult authResult = AuthenticationManager.authenticateIdentityCookie(session, realm, true);
+    AuthResult authResult = IdentityCookies.authenticate(session, realm);
     if (authResult == null) {
       LOG.debug("authentication by cookie failed");
       context.attempted();
@@ -44,39 +58,40 @@ public class ExtendedCookieAuthenticator extends CookieAuthenticator implements
     UserSessionModel userSession = authResult.getSession();
     if (!userSession.getNotes().containsKey(IMPERSONATOR_ID)) {
       LOG.debug("impersonation not active");
-      super.authenticate(context);
+      authenticate(context, authResult);
       return;
     }
 
-    String impersonatorId = userSession.getNotes().get(IMPERSONATOR_ID);
-    UserModel impersonator = session.users().getUserById(realm, impersonatorId);
-    RoleModel requiredRole = realm.getClientByClientId("realm-management").getRole("impersonation");
-    if (impersonator == null || requiredRole == null) {
-      LOG.debug("internal error");
-      Response response =
-          context
-              .form()
-              .setError("Server Misconfiguration")
-              .createErrorPage(Status.INTERNAL_SERVER_ERROR);
-      context.failure(AuthenticationFlowError.INTERNAL_ERROR, response);
-      return;
+    ClientModel client = context.getAuthenticationSession().getClient();
+    String mappingVersion = RoleGraphs.getMappingVersion(realm);
+    String decisionNote = IMPERSONATOR_DECISION_PREFIX + client.getId();
+    String impersonatorRoles = getDecision(userSession.getNote(decisionNote), mappingVersion);
+    if (impersonatorRoles == null) {
+      impersonatorRoles = decide(session, realm, client, userSession.getNote(IMPERSONATOR_ID));
+      if (impersonatorRoles == null) {
+        LOG.debug("internal error");
+        Response response =
+            context
+                .form()
+                .setError("Server Misconfiguration")
+                .createErrorPage(Status.INTERNAL_SERVER_ERROR);
+        context.failure(AuthenticationFlowError.INTERNAL_ERROR, response);
+        return;
+      }
+      if (mappingVersion != null) {
+        userSession.setNote(
+            decisionNote,
+            mappingVersion + "/" + Time.currentTimeMillis() + "/" + impersonatorRoles);
+      }
     }
 
-    ClientModel client = context.getAuthenticationSession().getClient();
-    Set<RoleModel> clientRoles =
-        client
-            .getRolesStream()
-            .filter(RoleModel::isComposite)
-            .filter(x -> getDeepRoleCompositesStream(x).anyMatch(y -> y.equals(requiredRole)))
-            .collect(Collectors.toSet());
-    Set<RoleModel> impersonatorRoles = RoleUtils.getDeepUserRoleMappings(impersonator);
-    Set<RoleModel> roleIntersection = Sets.intersection(clientRoles, impersonatorRoles);
-    if (!roleIntersection.isEmpty()) {
+    if (!impersonatorRoles.isEmpty()) {
       LOG.debug("access granted to impersonator");
-      userSession.setNote(
-          IMPERSONATOR_ROLES,
-          roleIntersection.stream().map(RoleModel::getName).collect(Collectors.joining(",")));
-      super.authenticate(context);
+      if (!impersonatorRoles.equals(userSession.getNote(IMPERSONATOR_ROLES))
+          && !isMappedByProtocolMapper(realm, context.getAuthenticationSession())) {
+        userSession.setNote(IMPERSONATOR_ROLES, impersonatorRoles);
+      }
+      authenticate(context, authResult);
       return;
     }
 
@@ -86,11 +101,94 @@ public class ExtendedCookieAuthenticator extends CookieAuthenticator implements
     context.failure(AuthenticationFlowError.ACCESS_DENIED, response);
   }
 
-  private static Stream<RoleModel> getDeepRoleCompositesStream(
-      final RoleModel role) { // helper function
-    return Stream.concat(
-        Stream.of(role),
-        role.getCompositesStream()
-            .flatMap(ExtendedCookieAuthenticator::getDeepRoleCompositesStream));
+  /**
+   * Returns whether the client's tokens carry the impersonator's roles through the protocol mapper
+   * instead, which they do only if it is configured with the impersonation role.
+   */
+  private static boolean isMappedByProtocolMapper(
+      RealmModel realm, AuthenticationSessionModel authSession) {
+    RoleModel requiredRole = getImpersonationRole(realm);
+    return requiredRole != null
+        && ImpersonatorRolesProtocolMapper.isUsedBy(realm, authSession, requiredRole.getId());
+  }
+
+  /**
+   * Returns the impersonator's client roles that grant impersonation, comma separated and empty if
+   * there are none, or null if the impersonator or the impersonation role cannot be found.
+   */
+  private static String decide(
+      KeycloakSession session, RealmModel realm, ClientModel client, String impersonatorId) {
+    UserModel impersonator = session.users().getUserById(realm, impersonatorId);
+    RoleModel requiredRole = getImpersonationRole(realm);
+    if (impersonator == null || requiredRole == null) {
+      return null;
+    }
+
+    CompiledRoleGraph graph = RoleGraphs.get(realm, requiredRole);
+    BitSet roleIntersection = graph.clientRolesGranting(client, requiredRole);
+    roleIntersection.clear(graph.indexOf(requiredRole)); // only roles composited from it
+    roleIntersection.and(graph.effectiveRoles(impersonator, RoleGraphs.getGroupVersion(realm)));
+    return String.join(",", graph.getNames(roleIntersection));
+  }
+
+  private static RoleModel getImpersonationRole(RealmModel realm) {
+    ClientModel realmManagement = realm.getClientByClientId("realm-management");
+    return realmManagement == null ? null : realmManagement.getRole("impersonation");
+  }
+
+  /**
+   * Returns the decision recorded in the user session for the client, if it was made at the
+   * current role mapping version and within the max age; otherwise null.
+   */
+  private static String getDecision(String decisionNote, String mappingVersion) {
+    if (decisionNote == null || mappingVersion == null) {
+      return null;
+    }
+    String[] parts = decisionNote.split("/", 3);
+    if (parts.length < 3 || !parts[0].equals(mappingVersion)) {
+      return null;
+    }
+    try {
+      long decidedAt = Long.parseLong(parts[1]);
+      return Time.currentTimeMillis() - decidedAt <= DECISION_MAX_AGE ? parts[2] : null;
+    } catch (NumberFormatException e) { // written by an earlier version
+      return null;
+    }
+  }
+
+  /**
+   * Completes authentication as {@link CookieAuthenticator#authenticate} does, but with the result
+   * of cookie authentication already at hand rather than verifying the cookie again.
+   *
+   * <p>Mirrors {@code CookieAuthenticator#authenticate} of Keycloak 18.0.2; compare the two again
+   * whenever Keycloak is upgraded.
+   */
+  private static void authenticate(AuthenticationFlowContext context, AuthResult authResult) {
+    AuthenticationSessionModel authSession = context.getAuthenticationSession();
+    LoginProtocol protocol =
+        context.getSession().getProvider(LoginProtocol.class, authSession.getProtocol());
+    authSession.setAuthNote(Constants.LOA_MAP, authResult.getSession().getNote(Constants.LOA_MAP));
+    context.setUser(authResult.getUser());
+    AcrStore acrStore = new AcrStore(authSession);
+
+    if (protocol.requireReauthentication(authResult.getSession(), authSession)) {
+      acrStore.setLevelAuthenticatedToCurrentRequest(Constants.NO_LOA);
+      authSession.setAuthNote(AuthenticationManager.FORCED_REAUTHENTICATION, "true");
+      context.setForwardedInfoMessage(Messages.REAUTHENTICATE);
+      context.attempted();
+      return;
+    }
+
+    int previouslyAuthenticatedLevel =
+        acrStore.getHighestAuthenticatedLevelFromPreviousAuthentication();
+    acrStore.setLevelAuthenticatedToCurrentRequest(previouslyAuthenticatedLevel);
+    if (acrStore.getRequestedLevelOfAuthentication() > previouslyAuthenticatedLevel) {
+      context.attempted(); // step-up authentication required
+      return;
+    }
+
+    authSession.setAuthNote(AuthenticationManager.SSO_AUTH, "true");
+    context.attachUserSession(authResult.getSession());
+    context.success();
   }
 }
@@ -0,0 +1,33 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.services.managers;
+
+import java.util.Optional;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.managers.AuthenticationManager.AuthResult;
+
+/**
+ * Request-scoped memoisation of identity cookie authentication. Verifying the cookie checks the
+ * token's signature and loads the user session, so the result (including the absence of one) is
+ * kept as an attribute of the Keycloak session, which lives as long as the request, for every
+ * authenticator of the flow to share.
+ */
+public final class IdentityCookies {
+  private static final String ATTRIBUTE_NAME_PREFIX = IdentityCookies.class.getName() + ".";
+
+  private IdentityCookies() {}
+
+  @SuppressWarnings("unchecked")
+  public static AuthResult authenticate(KeycloakSession session, RealmModel realm) {
+    String attributeName = ATTRIBUTE_NAME_PREFIX + realm.getId();
+    Optional<AuthResult> authResult = (Optional<AuthResult>) session.getAttribute(attributeName);
+    if (authResult == null) {
+      authResult =
+          Optional.ofNullable(
+              AuthenticationManager.authenticateIdentityCookie(session, realm, true));
+      session.setAttribute(attributeName, authResult);
+    }
+    return authResult.orElse(null);
+  }
+}
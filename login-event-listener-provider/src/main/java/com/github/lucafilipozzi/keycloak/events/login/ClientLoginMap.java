@@ -0,0 +1,217 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.login;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import lombok.AllArgsConstructor;
+
+/**
+ * Map of client to last login, packed into the values of a multivalued attribute.
+ *
+ * <p>Clients are keyed by their (internal) id, stored as 16 bytes when it is a UUID, and login
+ * times are kept to the minute. Entries are ordered newest first and split across as many values
+ * as needed for none to exceed {@link #MAX_ENCODED_LENGTH} characters; within a value, the first
+ * time is stored as an absolute varint and each subsequent one as a varint delta from its
+ * predecessor, and the result is base64url encoded. No entry is ever dropped to make room: only
+ * those of clients that no longer exist are removed, by {@link #retainAll}.
+ */
+final class ClientLoginMap {
+  static final int MAX_ENCODED_LENGTH = 255; // size of the USER_ATTRIBUTE.VALUE column
+
+  private static final int MAX_VALUE_BYTES = MAX_ENCODED_LENGTH * 3 / 4; // unpadded base64
+
+  private static final byte VERSION = 2;
+
+  private static final int UUID_KEY = 0; // in place of the length of a key held as a UUID
+
+  private static final Comparator<Entry> NEWEST_FIRST =
+      Comparator.comparingLong((Entry entry) -> entry.minutes).reversed();
+
+  private final List<Entry> entries;
+
+  private ClientLoginMap(List<Entry> entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Decodes and merges the values of the attribute. A value that is corrupt, or was written by an
+   * earlier version, is treated as empty; it is rewritten on the next login.
+   */
+  static ClientLoginMap decode(List<String> values) {
+    Map<String, Entry> byKey = new HashMap<>();
+    for (String value : values) {
+      for (Entry entry : decode(value)) {
+        byKey.merge(entry.key, entry, (a, b) -> a.minutes >= b.minutes ? a : b);
+      }
+    }
+    List<Entry> entries = new ArrayList<>(byKey.values());
+    entries.sort(NEWEST_FIRST);
+    return new ClientLoginMap(entries);
+  }
+
+  /**
+   * Records a login, returning whether the map changed. Logins within {@code resolution} of the
+   * recorded one for the same client are coalesced into it.
+   */
+  boolean record(String clientId, long timeMillis, long resolutionMillis) {
+    long minutes = TimeUnit.MILLISECONDS.toMinutes(timeMillis);
+    Entry existing =
+        entries.stream().filter(entry -> entry.key.equals(clientId)).findFirst().orElse(null);
+    if (existing != null) {
+      if (TimeUnit.MINUTES.toMillis(minutes - existing.minutes) < resolutionMillis) {
+        return false;
+      }
+      existing.minutes = minutes;
+    } else {
+      entries.add(new Entry(clientId, minutes));
+    }
+    entries.sort(NEWEST_FIRST);
+    return true;
+  }
+
+  /** Removes the entries of clients that do not satisfy the predicate, returning whether any. */
+  boolean retainAll(Predicate<String> exists) {
+    return entries.removeIf(entry -> !exists.test(entry.key));
+  }
+
+  List<String> encode() {
+    List<String> values = new ArrayList<>();
+    ByteArrayOutputStream value = new ByteArrayOutputStream();
+    int count = 0;
+    long previous = 0L;
+    for (Entry entry : entries) {
+      byte[] key = encodeKey(entry.key);
+      // a value holds fewer than 128 entries, so its header is two bytes
+      if (count > 0 && 2 + value.size() + key.length + 10 > MAX_VALUE_BYTES) {
+        values.add(encode(count, value));
+        value.reset();
+        count = 0;
+      }
+      value.write(key, 0, key.length);
+      writeVarint(value, count == 0 ? entry.minutes : previous - entry.minutes);
+      previous = entry.minutes;
+      count++;
+    }
+    if (count > 0) {
+      values.add(encode(count, value));
+    }
+    return values;
+  }
+
+  boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  long oldestMillis() {
+    return entries.isEmpty()
+        ? 0L
+        : TimeUnit.MINUTES.toMillis(entries.get(entries.size() - 1).minutes);
+  }
+
+  void forEach(BiConsumer<String, Long> consumer) {
+    entries.forEach(entry -> consumer.accept(entry.key, TimeUnit.MINUTES.toMillis(entry.minutes)));
+  }
+
+  private static List<Entry> decode(String value) {
+    List<Entry> entries = new ArrayList<>();
+    if (value == null || value.isEmpty()) {
+      return entries;
+    }
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(value));
+      if (buffer.get() != VERSION) {
+        return entries;
+      }
+      long count = readVarint(buffer);
+      long minutes = 0L;
+      for (long i = 0L; i < count; i++) {
+        String key = readKey(buffer);
+        minutes = i == 0L ? readVarint(buffer) : minutes - readVarint(buffer);
+        entries.add(new Entry(key, minutes));
+      }
+    } catch (RuntimeException e) { // treat a corrupt value as empty, it is rewritten on next login
+      entries.clear();
+    }
+    return entries;
+  }
+
+  private static String encode(int count, ByteArrayOutputStream entries) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(VERSION);
+    writeVarint(out, count);
+    out.write(entries.toByteArray(), 0, entries.size());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+  }
+
+  private static byte[] encodeKey(String key) {
+    UUID uuid = parseUuid(key);
+    if (uuid != null) {
+      return ByteBuffer.allocate(17)
+          .put((byte) UUID_KEY)
+          .putLong(uuid.getMostSignificantBits())
+          .putLong(uuid.getLeastSignificantBits())
+          .array();
+    }
+    byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeVarint(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+    return out.toByteArray();
+  }
+
+  private static String readKey(ByteBuffer buffer) {
+    int length = (int) readVarint(buffer);
+    if (length == UUID_KEY) {
+      return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static UUID parseUuid(String key) { // only if it reads back as the same string
+    try {
+      UUID uuid = UUID.fromString(key);
+      return uuid.toString().equals(key) ? uuid : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0L) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarint(ByteBuffer buffer) {
+    long value = 0L;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("malformed varint");
+  }
+
+  @AllArgsConstructor
+  private static final class Entry {
+    private final String key;
+    private long minutes;
+  }
+}
@@ -0,0 +1,178 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.login;
+
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.cache.UserCache;
+import org.keycloak.models.cache.infinispan.UserCacheManager;
+import org.keycloak.models.cache.infinispan.UserCacheSession;
+import org.keycloak.models.cache.infinispan.entities.CachedUser;
+import org.keycloak.models.jpa.entities.UserAttributeEntity;
+import org.keycloak.models.jpa.entities.UserEntity;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Writes user attributes straight through the JPA connection, addressing the user by id only, so
+ * that neither the user nor its attributes are loaded into the user cache or persistence context.
+ * Only applicable to users held in local storage.
+ *
+ * <p>The first value of an attribute is inserted under an id derived from the user's id and the
+ * attribute's name, so that the primary key rejects a concurrent insert of the same attribute: the
+ * loser's transaction fails with a {@link org.keycloak.models.ModelDuplicateException} and is
+ * expected to be retried, when its update finds the winner's row.
+ */
+@JBossLog
+@RequiredArgsConstructor
+class DirectUserAttributeStore {
+  private static final String SELECT_QUERY =
+      "select attr.value from UserAttributeEntity attr"
+          + " where attr.user.id = :userId and attr.name = :name";
+
+  private static final String UPDATE_QUERY =
+      "update UserAttributeEntity attr set attr.value = :value"
+          + " where attr.user.id = :userId and attr.name = :name";
+
+  private static final String LOCK_QUERY =
+      "update UserAttributeEntity attr set attr.value = attr.value"
+          + " where attr.user.id = :userId and attr.name = :name";
+
+  private static final String DELETE_QUERY =
+      "delete from UserAttributeEntity attr where attr.user.id = :userId and attr.name = :name";
+
+  // the user cache session does not expose the cache whose entry it is to invalidate
+  private static final Field USER_CACHE_MANAGER = getUserCacheManagerField();
+
+  private final KeycloakSession session;
+
+  List<String> getAttribute(String userId, String name) {
+    return getEntityManager()
+        .createQuery(SELECT_QUERY, String.class)
+        .setParameter("userId", userId)
+        .setParameter("name", name)
+        .getResultList();
+  }
+
+  /**
+   * Locks the row of a single-valued attribute until the end of the transaction, creating it with
+   * the given value if need be, so that read-modify-write cycles on the user are serialised.
+   */
+  void lockSingleAttribute(String userId, String name, String initialValue) {
+    int locked =
+        getEntityManager()
+            .createQuery(LOCK_QUERY)
+            .setParameter("userId", userId)
+            .setParameter("name", name)
+            .executeUpdate();
+    if (locked == 0) {
+      setSingleAttribute(userId, name, initialValue);
+    }
+  }
+
+  /** Replaces the values of an attribute; only safe under {@link #lockSingleAttribute}. */
+  void setAttribute(String userId, String name, List<String> values) {
+    EntityManager em = getEntityManager();
+    em.createQuery(DELETE_QUERY)
+        .setParameter("userId", userId)
+        .setParameter("name", name)
+        .executeUpdate();
+    for (String value : values) {
+      UserAttributeEntity attribute = new UserAttributeEntity();
+      attribute.setId(KeycloakModelUtils.generateId());
+      attribute.setUser(em.getReference(UserEntity.class, userId));
+      attribute.setName(name);
+      attribute.setValue(value);
+      em.persist(attribute);
+    }
+  }
+
+  void setSingleAttribute(String userId, String name, String value) {
+    EntityManager em = getEntityManager();
+
+    int updated =
+        em.createQuery(UPDATE_QUERY)
+            .setParameter("value", value)
+            .setParameter("userId", userId)
+            .setParameter("name", name)
+            .executeUpdate();
+
+    if (updated == 0) { // first write for this user: insert without loading the user
+      UserAttributeEntity attribute = new UserAttributeEntity();
+      attribute.setId(attributeId(userId, name));
+      attribute.setUser(em.getReference(UserEntity.class, userId));
+      attribute.setName(name);
+      attribute.setValue(value);
+      em.persist(attribute);
+      em.flush(); // surface a conflicting insert now rather than at commit
+    }
+  }
+
+  /**
+   * Invalidates the user's cache entry, and its username and email lookups, on every node once the
+   * transaction commits. The username and email are read from the entry cached on this node rather
+   * than by loading the user; if none is cached, there is nothing to evict. The login having just
+   * loaded the user through this node's cache, an entry held by another node alone is unlikely.
+   */
+  void evict(String realmId, String userId) {
+    UserCache userCache = session.userCache();
+    if (userCache == null) {
+      return;
+    }
+
+    RealmModel realm = session.getContext().getRealm();
+    if (realm == null || !realm.getId().equals(realmId)) {
+      realm = session.realms().getRealm(realmId);
+    }
+
+    if (USER_CACHE_MANAGER == null || !(userCache instanceof UserCacheSession)) {
+      // a user cache whose entries cannot be read: load the user, bypassing the cache
+      UserModel user = session.userLocalStorage().getUserById(realm, userId);
+      if (user != null) {
+        userCache.evict(realm, user);
+      }
+      return;
+    }
+
+    CachedUser cached = getCachedUser((UserCacheSession) userCache, userId);
+    if (cached != null) {
+      ((UserCacheSession) userCache).registerUserInvalidation(realm, cached);
+    }
+  }
+
+  private static CachedUser getCachedUser(UserCacheSession userCache, String userId) {
+    try {
+      UserCacheManager cache = (UserCacheManager) USER_CACHE_MANAGER.get(userCache);
+      return cache == null ? null : cache.get(userId, CachedUser.class);
+    } catch (IllegalAccessException e) { // made accessible when the class was loaded
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Field getUserCacheManagerField() {
+    try {
+      Field field = UserCacheSession.class.getDeclaredField("cache");
+      field.setAccessible(true);
+      return field;
+    } catch (NoSuchFieldException | RuntimeException e) {
+      LOG.warnf("cannot read the user cache (%s): users will be loaded to be evicted", e);
+      return null;
+    }
+  }
+
+  static String attributeId(String userId, String name) {
+    return UUID.nameUUIDFromBytes((userId + '/' + name).getBytes(StandardCharsets.UTF_8))
+        .toString();
+  }
+
+  private EntityManager getEntityManager() {
+    return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+  }
+}
@@ -1,6 +1,7 @@
 // © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
 package com.github.lucafilipozzi.keycloak.events.login;
 
+import java.util.stream.Collectors;
 import lombok.extern.jbosslog.JBossLog;
 import org.jboss.logging.Logger;
 import org.keycloak.common.util.Time;
@@ -9,34 +10,141 @@ import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventType;
 import org.keycloak.events.admin.AdminEvent;
 import org.keycloak.events.log.JBossLoggingEventListenerProvider;
+import org.keycloak.models.ClientModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ModelDuplicateException;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.storage.StorageId;
 
 @JBossLog
 public class LoginEventListenerProvider extends JBossLoggingEventListenerProvider
     implements EventListenerProvider {
   public final KeycloakSession session;
   public static final String LAST_LOGIN_ATTRIBUTE_NAME = "last-login";
+  public static final String LAST_LOGIN_CLIENTS_ATTRIBUTE_NAME = "last-login-clients";
+  public static final String LAST_LOGIN_CLIENTS_OLDEST_ATTRIBUTE_NAME = "last-login-clients-oldest";
 
-  public LoginEventListenerProvider(KeycloakSession session, Logger logger) {
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final boolean directUpdate;
+
+  private final boolean trackClients;
+
+  private final long clientLoginResolution;
+
+  public LoginEventListenerProvider(
+      KeycloakSession session,
+      Logger logger,
+      boolean directUpdate,
+      boolean trackClients,
+      long clientLoginResolution) {
     super(session, logger, Logger.Level.WARN, Logger.Level.WARN);
     this.session = session;
+    this.directUpdate = directUpdate;
+    this.trackClients = trackClients;
+    this.clientLoginResolution = clientLoginResolution;
+  }
+
+  static String formatOldest(long oldestMillis) { // fixed width so that values sort as strings
+    return String.format("%013d", oldestMillis);
   }
 
   @Override
   public void onEvent(Event event) {
     if (event.getType() == EventType.LOGIN) {
-      RealmModel realm = session.realms().getRealm(event.getRealmId());
-      UserModel user = session.users().getUserById(realm, event.getUserId());
-      LOG.tracef(
-          "setting %s on realm='%s' user='%s' userId='%s'",
-          LAST_LOGIN_ATTRIBUTE_NAME, realm.getName(), user.getUsername(), user.getId());
-      user.setSingleAttribute(LAST_LOGIN_ATTRIBUTE_NAME, Long.toString(Time.currentTimeMillis()));
+      long currentTime = Time.currentTimeMillis();
+      String lastLogin = Long.toString(currentTime);
+      boolean trackClient = trackClients && event.getClientId() != null;
+      if (directUpdate && StorageId.isLocalStorage(event.getUserId())) {
+        LOG.tracef(
+            "setting %s on realmId='%s' userId='%s'",
+            LAST_LOGIN_ATTRIBUTE_NAME, event.getRealmId(), event.getUserId());
+        setDirectly(event, currentTime, lastLogin, trackClient);
+      } else {
+        RealmModel realm = session.realms().getRealm(event.getRealmId());
+        UserModel user = session.users().getUserById(realm, event.getUserId());
+        LOG.tracef(
+            "setting %s on realm='%s' user='%s' userId='%s'",
+            LAST_LOGIN_ATTRIBUTE_NAME, realm.getName(), user.getUsername(), user.getId());
+        user.setSingleAttribute(LAST_LOGIN_ATTRIBUTE_NAME, lastLogin);
+        if (trackClient) {
+          ClientLoginMap clientLogins =
+              ClientLoginMap.decode(
+                  user.getAttributeStream(LAST_LOGIN_CLIENTS_ATTRIBUTE_NAME)
+                      .collect(Collectors.toList()));
+          if (record(realm, clientLogins, event.getClientId(), currentTime)) {
+            user.setAttribute(LAST_LOGIN_CLIENTS_ATTRIBUTE_NAME, clientLogins.encode());
+            user.setSingleAttribute(
+                LAST_LOGIN_CLIENTS_OLDEST_ATTRIBUTE_NAME,
+                formatOldest(clientLogins.oldestMillis()));
+          }
+        }
+      }
       super.onEvent(event);
     }
   }
 
+  /**
+   * Writes the attributes in a transaction of their own, so that a conflicting first insert, by a
+   * concurrent login of the same user, fails only that transaction, which is then retried.
+   */
+  private void setDirectly(Event event, long currentTime, String lastLogin, boolean trackClient) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        KeycloakModelUtils.runJobInTransaction(
+            session.getKeycloakSessionFactory(),
+            jobSession -> {
+              String userId = event.getUserId();
+              DirectUserAttributeStore store = new DirectUserAttributeStore(jobSession);
+              store.setSingleAttribute(userId, LAST_LOGIN_ATTRIBUTE_NAME, lastLogin);
+              if (trackClient) {
+                // serialise concurrent logins of the user on the row of its oldest client login
+                store.lockSingleAttribute(
+                    userId, LAST_LOGIN_CLIENTS_OLDEST_ATTRIBUTE_NAME, formatOldest(currentTime));
+                ClientLoginMap clientLogins =
+                    ClientLoginMap.decode(
+                        store.getAttribute(userId, LAST_LOGIN_CLIENTS_ATTRIBUTE_NAME));
+                RealmModel realm = jobSession.realms().getRealm(event.getRealmId());
+                if (record(realm, clientLogins, event.getClientId(), currentTime)) {
+                  store.setAttribute(
+                      userId, LAST_LOGIN_CLIENTS_ATTRIBUTE_NAME, clientLogins.encode());
+                  store.setSingleAttribute(
+                      userId,
+                      LAST_LOGIN_CLIENTS_OLDEST_ATTRIBUTE_NAME,
+                      formatOldest(clientLogins.oldestMillis()));
+                }
+              }
+              store.evict(event.getRealmId(), event.getUserId());
+            });
+        return;
+      } catch (ModelDuplicateException e) {
+        if (attempt == MAX_ATTEMPTS) {
+          LOG.warnf(
+              "%s not set on realmId='%s' userId='%s' after %d attempts",
+              LAST_LOGIN_ATTRIBUTE_NAME, event.getRealmId(), event.getUserId(), attempt);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the login to the client, keyed by its id, returning whether the map changed. Entries of
+   * clients since deleted are dropped whenever the map is written: there is no access to retire.
+   */
+  private boolean record(
+      RealmModel realm, ClientLoginMap clientLogins, String clientId, long currentTime) {
+    ClientModel client = realm.getClientByClientId(clientId);
+    if (client == null
+        || !clientLogins.record(client.getId(), currentTime, clientLoginResolution)) {
+      return false;
+    }
+    clientLogins.retainAll(id -> realm.getClientById(id) != null);
+    return true;
+  }
+
   @Override
   public void onEvent(AdminEvent event, boolean includeRepresentation) {
     // intentionally empty
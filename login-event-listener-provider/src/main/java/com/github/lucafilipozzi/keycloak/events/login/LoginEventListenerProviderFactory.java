@@ -51,17 +51,33 @@ public class LoginEventListenerProviderFactory implements EventListenerProviderF
 
   private static final String DAYS_UNTIL_PASSWORD_EXPIRY_ATTRIBUTE_NAME = "days-until-password-expiry";
 
+  private static final String CLIENT_LOGIN_RESOLUTION = "PT1H";
+
+  private boolean directUpdate;
+
+  private boolean trackClients;
+
+  private long clientLoginResolution;
+
   private long taskInterval;
 
   private List<Long> warningIntervals;
 
   @Override
   public EventListenerProvider create(KeycloakSession session) {
-    return new LoginEventListenerProvider(session, Logger.getLogger("org.keycloak.events"));
+    return new LoginEventListenerProvider(
+        session,
+        Logger.getLogger("org.keycloak.events"),
+        directUpdate,
+        trackClients,
+        clientLoginResolution);
   }
 
   @Override
   public void init(Config.Scope config) {
+    directUpdate = config.getBoolean("directUpdate", Boolean.TRUE);
+    trackClients = config.getBoolean("trackClients", Boolean.FALSE);
+    clientLoginResolution = Duration.parse(config.get("clientLoginResolution", CLIENT_LOGIN_RESOLUTION)).toMillis();
     taskInterval = Duration.parse(config.get("taskInterval", TASK_INTERVAL)).toMillis();
     warningIntervals = Stream.of(config.get("warningIntervals", WARNING_INTERVALS).split(",")).map(String::trim).map(Duration::parse).map(Duration::toMillis).collect(Collectors.toList());
   }
@@ -0,0 +1,111 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.login;
+
+import static com.github.lucafilipozzi.keycloak.events.login.LoginEventListenerProvider.LAST_LOGIN_CLIENTS_ATTRIBUTE_NAME;
+import static com.github.lucafilipozzi.keycloak.events.login.LoginEventListenerProvider.LAST_LOGIN_CLIENTS_OLDEST_ATTRIBUTE_NAME;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import lombok.RequiredArgsConstructor;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager.AuthResult;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+
+/**
+ * Lists (user, client) pairs whose last login is older than a given age. Candidate users are
+ * selected by a range query on the fixed-width {@code last-login-clients-oldest} attribute, which
+ * is served by the (name, value) index on user attributes, so only users with at least one stale
+ * client are decoded. A user whose map spans several values of {@code last-login-clients} yields
+ * a row per value. Clients since deleted are not listed: there is no access to retire.
+ */
+@RequiredArgsConstructor
+public class StaleClientLoginsResourceProvider implements RealmResourceProvider {
+  private static final String STALE_QUERY =
+      "select u.id, u.username, clients.value"
+          + " from UserEntity u, UserAttributeEntity oldest, UserAttributeEntity clients"
+          + " where oldest.user = u and clients.user = u and u.realmId = :realmId"
+          + " and oldest.name = :oldestName and oldest.value < :cutoff"
+          + " and clients.name = :clientsName"
+          + " order by oldest.value";
+
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  private final KeycloakSession session;
+
+  @Override
+  public Object getResource() {
+    return this;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public List<Map<String, Object>> getStaleClientLogins(
+      @QueryParam("olderThan") @DefaultValue("P90D") String olderThan,
+      @QueryParam("first") @DefaultValue("0") int first,
+      @QueryParam("max") @DefaultValue("100") int max) {
+    RealmModel realm = session.getContext().getRealm();
+    requireViewUsers(realm);
+
+    long cutoff = Time.currentTimeMillis() - Duration.parse(olderThan).toMillis();
+
+    List<Map<String, Object>> staleClientLogins = new ArrayList<>();
+    session
+        .getProvider(JpaConnectionProvider.class)
+        .getEntityManager()
+        .createQuery(STALE_QUERY, Object[].class)
+        .setParameter("realmId", realm.getId())
+        .setParameter("oldestName", LAST_LOGIN_CLIENTS_OLDEST_ATTRIBUTE_NAME)
+        .setParameter("cutoff", LoginEventListenerProvider.formatOldest(cutoff))
+        .setParameter("clientsName", LAST_LOGIN_CLIENTS_ATTRIBUTE_NAME)
+        .setFirstResult(first)
+        .setMaxResults(max)
+        .getResultStream()
+        .forEach(
+            row ->
+                ClientLoginMap.decode(List.of((String) row[2]))
+                    .forEach(
+                        (id, lastLogin) -> {
+                          ClientModel client = realm.getClientById(id);
+                          if (lastLogin < cutoff && client != null) {
+                            Map<String, Object> staleClientLogin = new LinkedHashMap<>();
+                            staleClientLogin.put("userId", row[0]);
+                            staleClientLogin.put("username", row[1]);
+                            staleClientLogin.put("clientId", client.getClientId());
+                            staleClientLogin.put("lastLogin", lastLogin);
+                            staleClientLogins.add(staleClientLogin);
+                          }
+                        }));
+    return staleClientLogins;
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+
+  private void requireViewUsers(RealmModel realm) {
+    AuthResult authResult = new AppAuthManager.BearerTokenAuthenticator(session).authenticate();
+    if (authResult == null) {
+      throw new NotAuthorizedException("Bearer");
+    }
+    AdminAuth adminAuth =
+        new AdminAuth(realm, authResult.getToken(), authResult.getUser(), authResult.getClient());
+    AdminPermissions.evaluator(session, realm, adminAuth).users().requireView();
+  }
+}
@@ -0,0 +1,39 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.login;
+
+import com.google.auto.service.AutoService;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+@AutoService(RealmResourceProviderFactory.class)
+public class StaleClientLoginsResourceProviderFactory implements RealmResourceProviderFactory {
+  public static final String PROVIDER_ID = "stale-client-logins";
+
+  @Override
+  public RealmResourceProvider create(KeycloakSession session) {
+    return new StaleClientLoginsResourceProvider(session);
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    // intentionally empty
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    // intentionally empty
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+}
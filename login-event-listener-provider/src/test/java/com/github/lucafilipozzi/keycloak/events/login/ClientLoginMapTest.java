@@ -0,0 +1,87 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.login;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class ClientLoginMapTest {
+  private static final long NOW = 1_750_000_000_000L;
+
+  private static final long RESOLUTION = Duration.ofHours(1).toMillis();
+
+  private static Map<String, Long> toMap(ClientLoginMap clientLogins) {
+    Map<String, Long> map = new LinkedHashMap<>();
+    clientLogins.forEach(map::put);
+    return map;
+  }
+
+  private static String clientId(int i) {
+    return new UUID(0L, i).toString();
+  }
+
+  @Test
+  public void testRoundTrip() {
+    long monthAgo = NOW - Duration.ofDays(30).toMillis();
+    ClientLoginMap clientLogins = ClientLoginMap.decode(List.of());
+    assertThat(clientLogins.record(clientId(1), monthAgo, RESOLUTION), is(true));
+    assertThat(clientLogins.record("imported-client", NOW, RESOLUTION), is(true));
+    ClientLoginMap decoded = ClientLoginMap.decode(clientLogins.encode());
+    assertThat(toMap(decoded), is(equalTo(toMap(clientLogins))));
+    assertThat(decoded.oldestMillis(), is(equalTo(monthAgo - monthAgo % 60_000L)));
+  }
+
+  @Test
+  public void testCoalescing() {
+    ClientLoginMap clientLogins = ClientLoginMap.decode(List.of());
+    assertThat(clientLogins.record(clientId(1), NOW, RESOLUTION), is(true));
+    assertThat(clientLogins.record(clientId(1), NOW + RESOLUTION / 2, RESOLUTION), is(false));
+    assertThat(clientLogins.record(clientId(1), NOW + RESOLUTION, RESOLUTION), is(true));
+  }
+
+  @Test
+  public void testNoEntryIsDropped() {
+    ClientLoginMap clientLogins = ClientLoginMap.decode(List.of());
+    for (int i = 0; i < 64; i++) {
+      clientLogins.record(clientId(i), NOW + Duration.ofDays(i).toMillis(), RESOLUTION);
+    }
+    List<String> values = clientLogins.encode();
+    assertThat(values.size(), is(greaterThan(1)));
+    assertThat(
+        values.stream().map(String::length).collect(Collectors.toList()),
+        everyItem(is(lessThanOrEqualTo(ClientLoginMap.MAX_ENCODED_LENGTH))));
+    Map<String, Long> map = toMap(ClientLoginMap.decode(values));
+    assertThat(map.size(), is(equalTo(64)));
+    assertThat(map, hasKey(clientId(0))); // the oldest, most likely stale, entry is kept
+    assertThat(ClientLoginMap.decode(values).oldestMillis(), is(equalTo(NOW - NOW % 60_000L)));
+  }
+
+  @Test
+  public void testRetainAll() {
+    ClientLoginMap clientLogins = ClientLoginMap.decode(List.of());
+    clientLogins.record(clientId(1), NOW, RESOLUTION);
+    clientLogins.record(clientId(2), NOW, RESOLUTION);
+    assertThat(clientLogins.retainAll(id -> !id.equals(clientId(2))), is(true));
+    assertThat(toMap(clientLogins), not(hasKey(clientId(2))));
+    assertThat(clientLogins.retainAll(id -> true), is(false));
+  }
+
+  @Test
+  public void testCorruptValueIsEmpty() {
+    assertThat(ClientLoginMap.decode(List.of("not-a-valid-value")).isEmpty(), is(true));
+    assertThat(ClientLoginMap.decode(List.of("AQ")).isEmpty(), is(true)); // earlier version
+  }
+}
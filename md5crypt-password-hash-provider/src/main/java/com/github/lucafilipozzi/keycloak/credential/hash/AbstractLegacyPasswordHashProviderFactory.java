@@ -0,0 +1,91 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.Config.Scope;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.credential.hash.PasswordHashProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Base for the legacy hash provider factories. Providers are wrapped in a {@link
+ * VerificationBulkhead} when {@code maxConcurrentVerifications} is configured, and in a {@link
+ * VerifiedCredentialCache} when {@code verifiedCacheSize} is.
+ */
+@JBossLog
+public abstract class AbstractLegacyPasswordHashProviderFactory
+    implements PasswordHashProviderFactory {
+  private static final String QUEUE_TIMEOUT = "PT1S";
+
+  private static final String VERIFIED_CACHE_TTL = "PT1M";
+
+  private VerificationBulkhead bulkhead;
+
+  private VerifiedCredentialCache verifiedCache;
+
+  protected abstract PasswordHashProvider createProvider(KeycloakSession session);
+
+  @Override
+  public PasswordHashProvider create(KeycloakSession session) {
+    PasswordHashProvider provider = createProvider(session);
+    if (bulkhead != null) {
+      provider = new BulkheadPasswordHashProvider(provider, bulkhead);
+    }
+    if (verifiedCache != null) { // outermost, so that cache hits bypass the bulkhead
+      provider = new CachingPasswordHashProvider(provider, verifiedCache);
+    }
+    return provider;
+  }
+
+  @Override
+  public void init(Scope config) {
+    int maxConcurrentVerifications = config.getInt("maxConcurrentVerifications", 0);
+    if (maxConcurrentVerifications > 0) {
+      bulkhead =
+          new VerificationBulkhead(
+              maxConcurrentVerifications,
+              Duration.parse(config.get("verificationQueueTimeout", QUEUE_TIMEOUT)).toMillis());
+    }
+    int verifiedCacheSize = config.getInt("verifiedCacheSize", 0);
+    if (verifiedCacheSize > 0) {
+      verifiedCache =
+          new VerifiedCredentialCache(
+              Duration.parse(config.get("verifiedCacheTtl", VERIFIED_CACHE_TTL)).toMillis(),
+              verifiedCacheSize);
+    }
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    if (bulkhead == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(bulkhead, getObjectName());
+    } catch (JMException e) {
+      LOG.warnf(e, "verification bulkhead metrics not registered");
+    }
+  }
+
+  @Override
+  public void close() {
+    if (bulkhead == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName());
+    } catch (JMException e) {
+      LOG.debugf(e, "verification bulkhead metrics not unregistered");
+    }
+  }
+
+  private ObjectName getObjectName() throws JMException {
+    return new ObjectName(
+        "com.github.lucafilipozzi.keycloak:type=VerificationBulkhead,name=" + getId());
+  }
+}
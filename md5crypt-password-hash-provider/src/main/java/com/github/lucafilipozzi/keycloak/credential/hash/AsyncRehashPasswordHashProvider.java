@@ -0,0 +1,43 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import lombok.RequiredArgsConstructor;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+/**
+ * Stands in for the target algorithm as the realm's hash algorithm. Keycloak re-hashes a credential
+ * on login when the realm's provider rejects it in {@link #policyCheck}; legacy credentials are
+ * accepted here so that they are re-hashed in the background instead.
+ */
+@RequiredArgsConstructor
+public class AsyncRehashPasswordHashProvider implements PasswordHashProvider {
+  private final PasswordHashProvider delegate;
+
+  @Override
+  public boolean policyCheck(PasswordPolicy policy, PasswordCredentialModel credential) {
+    return AsyncRehashPasswordHashProviderFactory.isLegacy(credential)
+        || delegate.policyCheck(policy, credential);
+  }
+
+  @Override
+  public PasswordCredentialModel encodedCredential(String password, int iterations) {
+    return delegate.encodedCredential(password, iterations);
+  }
+
+  @Override
+  public String encode(String password, int iterations) {
+    return delegate.encode(password, iterations);
+  }
+
+  @Override
+  public boolean verify(String password, PasswordCredentialModel credential) {
+    return delegate.verify(password, credential);
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+}
@@ -0,0 +1,89 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import com.google.auto.service.AutoService;
+import org.keycloak.Config.Scope;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.credential.hash.PasswordHashProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+@AutoService(PasswordHashProviderFactory.class)
+public class AsyncRehashPasswordHashProviderFactory implements PasswordHashProviderFactory {
+  public static final String PROVIDER_ID = "async-rehash";
+
+  private static final String ALGORITHM = "pbkdf2-sha256";
+
+  private String algorithm;
+
+  private int maxConcurrentRehashes;
+
+  private AsyncRehasher rehasher;
+
+  static boolean isLegacy(PasswordCredentialModel credential) {
+    String algorithm = credential.getPasswordCredentialData().getAlgorithm();
+    return Md5CryptPasswordHashProviderFactory.PROVIDER_ID.equals(algorithm)
+        || LegacyCryptPasswordHashProviderFactory.PROVIDER_ID.equals(algorithm);
+  }
+
+  /**
+   * Schedules the re-hash of a legacy credential that was just verified, provided that the realm
+   * has opted in by using this provider as its hash algorithm.
+   */
+  static void recordVerification(
+      KeycloakSession session, PasswordCredentialModel credential, String password) {
+    if (session == null || credential.getId() == null) {
+      return;
+    }
+    RealmModel realm = session.getContext().getRealm();
+    PasswordPolicy policy = realm == null ? null : realm.getPasswordPolicy();
+    if (policy == null || !PROVIDER_ID.equals(policy.getHashAlgorithm())) {
+      return;
+    }
+    AsyncRehashPasswordHashProviderFactory factory =
+        (AsyncRehashPasswordHashProviderFactory)
+            session
+                .getKeycloakSessionFactory()
+                .getProviderFactory(PasswordHashProvider.class, PROVIDER_ID);
+    if (factory != null && factory.rehasher != null) {
+      factory.rehasher.offer(
+          credential.getId(), credential.getPasswordSecretData().getValue(), password);
+    }
+  }
+
+  AsyncRehasher getRehasher() {
+    return rehasher;
+  }
+
+  @Override
+  public PasswordHashProvider create(KeycloakSession session) {
+    return new AsyncRehashPasswordHashProvider(
+        session.getProvider(PasswordHashProvider.class, algorithm));
+  }
+
+  @Override
+  public void init(Scope config) {
+    algorithm = config.get("algorithm", ALGORITHM);
+    maxConcurrentRehashes = Math.max(1, config.getInt("maxConcurrentRehashes", 1));
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    rehasher = new AsyncRehasher(factory, algorithm, maxConcurrentRehashes);
+  }
+
+  @Override
+  public void close() {
+    if (rehasher != null) {
+      rehasher.shutdown();
+    }
+  }
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+}
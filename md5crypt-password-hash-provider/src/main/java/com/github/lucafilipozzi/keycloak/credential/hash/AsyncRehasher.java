@@ -0,0 +1,129 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.cache.UserCache;
+import org.keycloak.models.credential.PasswordCredentialModel;
+import org.keycloak.models.jpa.entities.CredentialEntity;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Re-hashes legacy credentials with the target algorithm on a few background threads, after they
+ * were verified during a login. Nothing is queued: a re-hash is handed straight to an idle thread,
+ * or dropped if there is none, so that a plaintext password is only held by the login that
+ * verified it and, for the length of a single re-hash, by the thread re-hashing it. A dropped
+ * re-hash, like one interrupted by the node stopping, happens on a later login instead.
+ */
+@JBossLog
+class AsyncRehasher {
+  private final KeycloakSessionFactory factory;
+
+  private final String algorithm;
+
+  private final ThreadPoolExecutor executor;
+
+  private final AtomicLong rehashedCount = new AtomicLong();
+
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  AsyncRehasher(KeycloakSessionFactory factory, String algorithm, int maxConcurrent) {
+    this.factory = factory;
+    this.algorithm = algorithm;
+    this.executor =
+        new ThreadPoolExecutor(
+            0,
+            maxConcurrent,
+            1L,
+            TimeUnit.MINUTES,
+            new SynchronousQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "async-rehash");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** Hands the re-hash to an idle thread, returning whether there was one. */
+  boolean offer(String credentialId, String hash, String password) {
+    try {
+      executor.execute(
+          () -> {
+            try {
+              KeycloakModelUtils.runJobInTransaction(
+                  factory, session -> rehash(session, credentialId, hash, password));
+            } catch (RuntimeException e) {
+              LOG.warnf(e, "credential %s not re-hashed", credentialId);
+            }
+          });
+      return true;
+    } catch (RejectedExecutionException e) {
+      droppedCount.incrementAndGet();
+      return false;
+    }
+  }
+
+  int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  long getRehashedCount() {
+    return rehashedCount.get();
+  }
+
+  long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private void rehash(KeycloakSession session, String credentialId, String hash, String password) {
+    CredentialEntity entity =
+        session
+            .getProvider(JpaConnectionProvider.class)
+            .getEntityManager()
+            .find(CredentialEntity.class, credentialId);
+    if (entity == null) {
+      return; // removed since
+    }
+    RealmModel realm = session.realms().getRealm(entity.getUser().getRealmId());
+    UserModel user = session.users().getUserById(realm, entity.getUser().getId());
+    CredentialModel stored =
+        session.userCredentialManager().getStoredCredentialById(realm, user, credentialId);
+    PasswordCredentialModel current = PasswordCredentialModel.createFromCredentialModel(stored);
+    if (!hash.equals(current.getPasswordSecretData().getValue())) {
+      return; // changed since, or already re-hashed
+    }
+
+    PasswordPolicy policy = realm.getPasswordPolicy();
+    PasswordCredentialModel rehashed =
+        session
+            .getProvider(PasswordHashProvider.class, algorithm)
+            .encodedCredential(password, policy == null ? -1 : policy.getHashIterations());
+    rehashed.setId(current.getId());
+    rehashed.setCreatedDate(current.getCreatedDate());
+    rehashed.setUserLabel(current.getUserLabel());
+    session.userCredentialManager().updateCredential(realm, user, rehashed);
+    UserCache userCache = session.userCache();
+    if (userCache != null) {
+      userCache.evict(realm, user);
+    }
+    rehashedCount.incrementAndGet();
+    LOG.debugf(
+        "credential %s of %s re-hashed with %s", credentialId, user.getUsername(), algorithm);
+  }
+}
@@ -0,0 +1,40 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import lombok.RequiredArgsConstructor;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+/** Decorates any password hash provider so that its verifications pass through a bulkhead. */
+@RequiredArgsConstructor
+public class BulkheadPasswordHashProvider implements PasswordHashProvider {
+  private final PasswordHashProvider delegate;
+
+  private final VerificationBulkhead bulkhead;
+
+  @Override
+  public boolean policyCheck(PasswordPolicy policy, PasswordCredentialModel credential) {
+    return delegate.policyCheck(policy, credential);
+  }
+
+  @Override
+  public PasswordCredentialModel encodedCredential(String password, int iterations) {
+    return delegate.encodedCredential(password, iterations);
+  }
+
+  @Override
+  public String encode(String password, int iterations) {
+    return delegate.encode(password, iterations);
+  }
+
+  @Override
+  public boolean verify(String password, PasswordCredentialModel credential) {
+    return bulkhead.verify(() -> delegate.verify(password, credential));
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
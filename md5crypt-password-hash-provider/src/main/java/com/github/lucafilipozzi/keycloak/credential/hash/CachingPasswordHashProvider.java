@@ -0,0 +1,53 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import lombok.RequiredArgsConstructor;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+/**
+ * Decorates a password hash provider so that repeated successful verifications of the same
+ * password against the same credential cost an HMAC rather than a full hash.
+ */
+@RequiredArgsConstructor
+class CachingPasswordHashProvider implements PasswordHashProvider {
+  private final PasswordHashProvider delegate;
+
+  private final VerifiedCredentialCache cache;
+
+  @Override
+  public boolean policyCheck(PasswordPolicy policy, PasswordCredentialModel credential) {
+    return delegate.policyCheck(policy, credential);
+  }
+
+  @Override
+  public PasswordCredentialModel encodedCredential(String password, int iterations) {
+    return delegate.encodedCredential(password, iterations);
+  }
+
+  @Override
+  public String encode(String password, int iterations) {
+    return delegate.encode(password, iterations);
+  }
+
+  @Override
+  public boolean verify(String password, PasswordCredentialModel credential) {
+    if (credential.getId() == null) { // not stored, nothing to key on
+      return delegate.verify(password, credential);
+    }
+    if (cache.contains(password, credential)) {
+      return true;
+    }
+    boolean verified = delegate.verify(password, credential);
+    if (verified) {
+      cache.add(password, credential);
+    }
+    return verified;
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
@@ -0,0 +1,113 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import lombok.RequiredArgsConstructor;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager.AuthResult;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+
+/**
+ * Reports the progress of migrating a realm away from legacy hashes: the number of password
+ * credentials still stored with a legacy algorithm, and the state of this node's re-hashes. The
+ * algorithm is only found in the credential data, which no index covers, so counting scans the
+ * realm's credentials; the count is therefore kept per node and realm, and recounted at most once
+ * per {@code remainingMaxAge}.
+ */
+@RequiredArgsConstructor
+public class LegacyCredentialsResourceProvider implements RealmResourceProvider {
+  private static final String REMAINING_QUERY =
+      "select count(c) from CredentialEntity c join c.user u"
+          + " where u.realmId = :realmId and c.type = :type"
+          + " and (c.credentialData like :md5Crypt or c.credentialData like :legacyCrypt)";
+
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  private final KeycloakSession session;
+
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  private final Map<String, long[]> counts; // by realm id: remaining, counted at
+
+  private final long remainingMaxAge;
+
+  @Override
+  public Object getResource() {
+    return this;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Long> getLegacyCredentials() {
+    RealmModel realm = session.getContext().getRealm();
+    requireViewUsers(realm);
+
+    long[] count =
+        counts.compute(
+            realm.getId(),
+            (realmId, counted) ->
+                counted != null && Time.currentTimeMillis() - counted[1] <= remainingMaxAge
+                    ? counted
+                    : new long[] {countRemaining(realm), Time.currentTimeMillis()});
+    Map<String, Long> legacyCredentials = new LinkedHashMap<>();
+    legacyCredentials.put("remaining", count[0]);
+    legacyCredentials.put("remainingCountedAt", count[1]);
+
+    AsyncRehashPasswordHashProviderFactory factory =
+        (AsyncRehashPasswordHashProviderFactory)
+            session
+                .getKeycloakSessionFactory()
+                .getProviderFactory(
+                    PasswordHashProvider.class, AsyncRehashPasswordHashProviderFactory.PROVIDER_ID);
+    if (factory != null && factory.getRehasher() != null) {
+      legacyCredentials.put("rehashing", (long) factory.getRehasher().getActiveCount());
+      legacyCredentials.put("rehashed", factory.getRehasher().getRehashedCount());
+      legacyCredentials.put("dropped", factory.getRehasher().getDroppedCount());
+    }
+    return legacyCredentials;
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+
+  private long countRemaining(RealmModel realm) {
+    return session
+        .getProvider(JpaConnectionProvider.class)
+        .getEntityManager()
+        .createQuery(REMAINING_QUERY, Long.class)
+        .setParameter("realmId", realm.getId())
+        .setParameter("type", PasswordCredentialModel.TYPE)
+        .setParameter("md5Crypt", algorithmPattern(Md5CryptPasswordHashProviderFactory.PROVIDER_ID))
+        .setParameter(
+            "legacyCrypt", algorithmPattern(LegacyCryptPasswordHashProviderFactory.PROVIDER_ID))
+        .getSingleResult();
+  }
+
+  private static String algorithmPattern(String algorithm) {
+    return "%\"algorithm\":\"" + algorithm + "\"%";
+  }
+
+  private void requireViewUsers(RealmModel realm) {
+    AuthResult authResult = new AppAuthManager.BearerTokenAuthenticator(session).authenticate();
+    if (authResult == null) {
+      throw new NotAuthorizedException("Bearer");
+    }
+    AdminAuth adminAuth =
+        new AdminAuth(realm, authResult.getToken(), authResult.getUser(), authResult.getClient());
+    AdminPermissions.evaluator(session, realm, adminAuth).users().requireView();
+  }
+}
@@ -0,0 +1,48 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import com.google.auto.service.AutoService;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+@AutoService(RealmResourceProviderFactory.class)
+public class LegacyCredentialsResourceProviderFactory implements RealmResourceProviderFactory {
+  public static final String PROVIDER_ID = "legacy-credentials";
+
+  private static final String REMAINING_MAX_AGE = "PT15M";
+
+  private final Map<String, long[]> counts = new ConcurrentHashMap<>();
+
+  private long remainingMaxAge;
+
+  @Override
+  public RealmResourceProvider create(KeycloakSession session) {
+    return new LegacyCredentialsResourceProvider(session, counts, remainingMaxAge);
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    remainingMaxAge = Duration.parse(config.get("remainingMaxAge", REMAINING_MAX_AGE)).toMillis();
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    // intentionally empty
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+}
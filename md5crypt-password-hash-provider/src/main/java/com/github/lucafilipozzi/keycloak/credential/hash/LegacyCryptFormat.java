@@ -0,0 +1,82 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import org.apache.commons.codec.digest.Sha2Crypt;
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * The crypt(3) hash formats understood by the legacy providers, identified by their prefix. Rounds
+ * (sha-crypt) and cost (bcrypt) are read from the hash itself.
+ */
+enum LegacyCryptFormat {
+  MD5(Md5CryptPasswordHashProviderFactory.PROVIDER_ID) {
+    @Override
+    boolean verify(String password, String hash) {
+      return Md5CryptVerifier.verify(password, hash);
+    }
+  },
+  SHA256(LegacyCryptPasswordHashProviderFactory.PROVIDER_ID) {
+    @Override
+    boolean verify(String password, String hash) {
+      return isEqual(Sha2Crypt.sha256Crypt(password.getBytes(StandardCharsets.UTF_8), hash), hash);
+    }
+  },
+  SHA512(LegacyCryptPasswordHashProviderFactory.PROVIDER_ID) {
+    @Override
+    boolean verify(String password, String hash) {
+      return isEqual(Sha2Crypt.sha512Crypt(password.getBytes(StandardCharsets.UTF_8), hash), hash);
+    }
+  },
+  BCRYPT(LegacyCryptPasswordHashProviderFactory.PROVIDER_ID) {
+    @Override
+    boolean verify(String password, String hash) {
+      // $2b$ and $2y$ only differ from $2a$ in how other implementations fixed their own bugs
+      return BCrypt.checkpw(password, "$2a" + hash.substring(3));
+    }
+  };
+
+  /** The algorithm under which credentials in this format are stored. */
+  final String algorithm;
+
+  LegacyCryptFormat(String algorithm) {
+    this.algorithm = algorithm;
+  }
+
+  abstract boolean verify(String password, String hash);
+
+  /** Returns the format of the hash, or {@code null} if it is not a supported crypt(3) hash. */
+  static LegacyCryptFormat of(String hash) {
+    if (hash == null || hash.length() < 4 || hash.charAt(0) != '$') {
+      return null;
+    }
+    switch (hash.charAt(1)) {
+      case '1':
+        return hash.charAt(2) == '$' ? MD5 : null;
+      case '5':
+        return hash.charAt(2) == '$' ? SHA256 : null;
+      case '6':
+        return hash.charAt(2) == '$' ? SHA512 : null;
+      case '2':
+        return "aby".indexOf(hash.charAt(2)) >= 0 && hash.charAt(3) == '$' ? BCRYPT : null;
+      default:
+        return null;
+    }
+  }
+
+  /** Verifies the password against a hash of any supported format. */
+  static boolean verifyAny(String password, String hash) {
+    LegacyCryptFormat format = of(hash);
+    try {
+      return format != null && format.verify(password, hash);
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) { // malformed salt or cost
+      return false;
+    }
+  }
+
+  private static boolean isEqual(String computed, String hash) {
+    return MessageDigest.isEqual(
+        computed.getBytes(StandardCharsets.US_ASCII), hash.getBytes(StandardCharsets.US_ASCII));
+  }
+}
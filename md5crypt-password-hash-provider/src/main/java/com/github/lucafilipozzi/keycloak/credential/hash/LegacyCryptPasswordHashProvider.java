@@ -0,0 +1,62 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import static com.github.lucafilipozzi.keycloak.credential.hash.LegacyCryptPasswordHashProviderFactory.PROVIDER_ID;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.codec.digest.Sha2Crypt;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.PasswordPolicy;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+/**
+ * Verifies md5crypt, sha256-crypt, sha512-crypt and bcrypt hashes, dispatching on the prefix of the
+ * stored hash. New hashes, should this be the realm's algorithm, are sha512-crypt.
+ */
+public class LegacyCryptPasswordHashProvider implements PasswordHashProvider {
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  private final KeycloakSession session;
+
+  public LegacyCryptPasswordHashProvider() {
+    this(null);
+  }
+
+  public LegacyCryptPasswordHashProvider(KeycloakSession session) {
+    this.session = session;
+  }
+
+  @Override
+  public boolean policyCheck(PasswordPolicy policy, PasswordCredentialModel credential) {
+    return credential.getPasswordCredentialData().getAlgorithm().equals(PROVIDER_ID);
+  }
+
+  @Override
+  public PasswordCredentialModel encodedCredential(String password, int iterations) {
+    return PasswordCredentialModel.createFromValues(PROVIDER_ID, new byte[0], 0, encode(password));
+  }
+
+  @Override
+  public String encode(String password, int iterations) {
+    return encode(password);
+  }
+
+  @Override
+  public boolean verify(String password, PasswordCredentialModel credential) {
+    if (!LegacyCryptFormat.verifyAny(password, credential.getPasswordSecretData().getValue())) {
+      return false;
+    }
+    AsyncRehashPasswordHashProviderFactory.recordVerification(session, credential, password);
+    return true;
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+
+  private String encode(String password) {
+    return Sha2Crypt.sha512Crypt(password.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,23 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import com.google.auto.service.AutoService;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.credential.hash.PasswordHashProviderFactory;
+import org.keycloak.models.KeycloakSession;
+
+@AutoService(PasswordHashProviderFactory.class)
+public class LegacyCryptPasswordHashProviderFactory
+    extends AbstractLegacyPasswordHashProviderFactory {
+  public static final String PROVIDER_ID = "legacy-crypt";
+
+  @Override
+  protected PasswordHashProvider createProvider(KeycloakSession session) {
+    return new LegacyCryptPasswordHashProvider(session);
+  }
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+}
@@ -0,0 +1,126 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Runs imports in the background, one at a time, on a per-node pool of at most {@code
+ * maxParallelism} workers shared by all imports. Each import reads its body from a file spooled by
+ * the request that submitted it, which the import deletes once done. The most recent imports are
+ * kept, by id, so that their progress may be queried from the node that ran them.
+ */
+@JBossLog
+class LegacyUserImportJobs {
+  private static final int MAX_QUEUED_JOBS = 16;
+
+  private static final int MAX_RETAINED_JOBS = 100;
+
+  private final KeycloakSessionFactory factory;
+
+  private final int maxParallelism;
+
+  private final ThreadPoolExecutor readers;
+
+  private final ThreadPoolExecutor workers;
+
+  private final Map<String, LegacyUserImporter> jobs =
+      Collections.synchronizedMap(
+          new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LegacyUserImporter> eldest) {
+              return size() > MAX_RETAINED_JOBS;
+            }
+          });
+
+  LegacyUserImportJobs(KeycloakSessionFactory factory, int maxParallelism) {
+    this.factory = factory;
+    this.maxParallelism = maxParallelism;
+    this.readers =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_JOBS),
+            runnable -> newThread(runnable, "legacy-user-import"));
+    this.workers =
+        new ThreadPoolExecutor(
+            maxParallelism,
+            maxParallelism,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), // bounded by the batches each import keeps in flight
+            runnable -> newThread(runnable, "legacy-user-import-worker"));
+  }
+
+  int getMaxParallelism() {
+    return maxParallelism;
+  }
+
+  /**
+   * Queues the import of the spooled body, returning its id, or throws {@link
+   * java.util.concurrent.RejectedExecutionException} if too many imports are queued already.
+   */
+  String submit(
+      String realmId,
+      Path body,
+      Function<String, LegacyUserImporter.ImportedUser> parser,
+      int batchSize,
+      int parallelism) {
+    String id = KeycloakModelUtils.generateId();
+    LegacyUserImporter importer =
+        new LegacyUserImporter(factory, workers, realmId, batchSize, parallelism);
+    readers.execute(
+        () -> {
+          try (BufferedReader reader = Files.newBufferedReader(body, StandardCharsets.UTF_8)) {
+            importer.importUsers(reader, parser);
+          } catch (IOException | RuntimeException e) {
+            LOG.warnf(e, "import %s into realm %s failed", id, realmId);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            delete(body);
+          }
+        });
+    jobs.put(id, importer);
+    return id;
+  }
+
+  LegacyUserImporter get(String id) {
+    return jobs.get(id);
+  }
+
+  void shutdown() {
+    readers.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  static void delete(Path body) {
+    try {
+      Files.deleteIfExists(body);
+    } catch (IOException e) {
+      LOG.warnf("%s not deleted (%s)", body, e.getMessage());
+    }
+  }
+
+  private static Thread newThread(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,140 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import lombok.RequiredArgsConstructor;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager.AuthResult;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+
+/**
+ * Imports users with legacy crypt hashes from a shadow/passwd-style or NDJSON body, streaming it
+ * rather than holding it in memory as a realm import would. The body is spooled to a temporary file
+ * and imported in the background; the response carries the id under which the progress of the
+ * import may be queried.
+ */
+@RequiredArgsConstructor
+public class LegacyUserImportResourceProvider implements RealmResourceProvider {
+  static final int MAX_BATCH_SIZE = 5000;
+
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  private final KeycloakSession session;
+
+  private final LegacyUserImportJobs jobs;
+
+  @Override
+  public Object getResource() {
+    return this;
+  }
+
+  @POST
+  @Consumes({MediaType.TEXT_PLAIN, "application/x-ndjson"})
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response importUsers(
+      InputStream body,
+      @QueryParam("format") @DefaultValue("shadow") String format,
+      @QueryParam("batchSize") @DefaultValue("500") int batchSize,
+      @QueryParam("parallelism") @DefaultValue("4") int parallelism)
+      throws IOException {
+    RealmModel realm = session.getContext().getRealm();
+    requireManageUsers(realm);
+
+    Function<String, LegacyUserImporter.ImportedUser> parser;
+    if (format.equals("shadow")) {
+      parser = LegacyUserImporter::parseShadow;
+    } else if (format.equals("ndjson")) {
+      parser = LegacyUserImporter::parseNdjson;
+    } else {
+      throw new BadRequestException("format must be shadow or ndjson");
+    }
+    if (batchSize < 1 || batchSize > MAX_BATCH_SIZE || parallelism < 1) {
+      throw new BadRequestException(
+          "batchSize must be between 1 and " + MAX_BATCH_SIZE + " and parallelism positive");
+    }
+
+    Path spooled = Files.createTempFile(LegacyUserImportResourceProviderFactory.PROVIDER_ID, null);
+    try {
+      Files.copy(body, spooled, StandardCopyOption.REPLACE_EXISTING);
+      String id =
+          jobs.submit(
+              realm.getId(),
+              spooled,
+              parser,
+              batchSize,
+              Math.min(parallelism, jobs.getMaxParallelism()));
+      return Response.accepted(status(id, jobs.get(id)))
+          .location(
+              session.getContext().getUri().getAbsolutePathBuilder().path("jobs/{id}").build(id))
+          .build();
+    } catch (RejectedExecutionException e) {
+      LegacyUserImportJobs.delete(spooled);
+      throw new ServiceUnavailableException("too many imports queued");
+    } catch (IOException | RuntimeException e) {
+      LegacyUserImportJobs.delete(spooled);
+      throw e;
+    }
+  }
+
+  @GET
+  @javax.ws.rs.Path("jobs/{id}")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getJob(@PathParam("id") String id) {
+    RealmModel realm = session.getContext().getRealm();
+    requireManageUsers(realm);
+    LegacyUserImporter importer = jobs.get(id);
+    if (importer == null || !importer.getRealmId().equals(realm.getId())) {
+      throw new NotFoundException("import not found on this node");
+    }
+    return status(id, importer);
+  }
+
+  private static Map<String, Object> status(String id, LegacyUserImporter importer) {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("id", id);
+    status.put("state", importer.getState().name().toLowerCase(Locale.ROOT));
+    status.putAll(importer.progress());
+    return status;
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+
+  private void requireManageUsers(RealmModel realm) {
+    AuthResult authResult = new AppAuthManager.BearerTokenAuthenticator(session).authenticate();
+    if (authResult == null) {
+      throw new NotAuthorizedException("Bearer");
+    }
+    AdminAuth adminAuth =
+        new AdminAuth(realm, authResult.getToken(), authResult.getUser(), authResult.getClient());
+    AdminPermissions.evaluator(session, realm, adminAuth).users().requireManage();
+  }
+}
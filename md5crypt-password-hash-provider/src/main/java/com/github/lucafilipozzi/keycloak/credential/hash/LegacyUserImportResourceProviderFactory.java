@@ -0,0 +1,45 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import com.google.auto.service.AutoService;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+@AutoService(RealmResourceProviderFactory.class)
+public class LegacyUserImportResourceProviderFactory implements RealmResourceProviderFactory {
+  public static final String PROVIDER_ID = "legacy-user-import";
+
+  private int maxParallelism;
+
+  private LegacyUserImportJobs jobs;
+
+  @Override
+  public RealmResourceProvider create(KeycloakSession session) {
+    return new LegacyUserImportResourceProvider(session, jobs);
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    maxParallelism = Math.max(1, config.getInt("maxParallelism", 4));
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    jobs = new LegacyUserImportJobs(factory, maxParallelism);
+  }
+
+  @Override
+  public void close() {
+    if (jobs != null) {
+      jobs.shutdown();
+    }
+  }
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+}
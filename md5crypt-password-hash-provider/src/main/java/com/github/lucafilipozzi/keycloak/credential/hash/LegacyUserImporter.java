@@ -0,0 +1,271 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ModelDuplicateException;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Streams users with legacy crypt hashes into a realm. Lines are read one at a time and grouped
+ * into batches, each of which is imported in its own transaction on a shared pool of workers; at
+ * most two batches per worker are held in memory at any time, whatever the size of the input. A
+ * batch that fails, typically because one of its users was created concurrently, is retried one
+ * user per transaction, so that only the offending users are skipped.
+ */
+@JBossLog
+@RequiredArgsConstructor
+class LegacyUserImporter {
+  enum State {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED
+  }
+
+  private final KeycloakSessionFactory factory;
+
+  private final Executor executor;
+
+  private final String realmId;
+
+  private final int batchSize;
+
+  private final int parallelism;
+
+  private final AtomicLong read = new AtomicLong();
+
+  private final AtomicLong created = new AtomicLong();
+
+  private final AtomicLong skipped = new AtomicLong();
+
+  private final AtomicLong failed = new AtomicLong();
+
+  private volatile State state = State.QUEUED;
+
+  /**
+   * Parses a shadow(5) or passwd(5) line: the username and hash are the first two fields. The user
+   * is enabled, its account being locked, if at all, by its hash.
+   */
+  static ImportedUser parseShadow(String line) {
+    String[] fields = line.split(":", -1);
+    if (fields.length < 2) {
+      throw new IllegalArgumentException("expected username:hash[:...]");
+    }
+    String firstName = null;
+    String lastName = null;
+    if (fields.length == 7) { // passwd(5): the gecos field starts with the full name
+      String fullName = fields[4].split(",", -1)[0].trim();
+      int space = fullName.lastIndexOf(' ');
+      firstName = space < 0 ? fullName : fullName.substring(0, space);
+      lastName = space < 0 ? null : fullName.substring(space + 1);
+    }
+    return new ImportedUser(fields[0], true, null, false, firstName, lastName, fields[1]);
+  }
+
+  /**
+   * Parses a line holding a user representation, as found in a realm export; as on a realm import,
+   * the user is only enabled, and its email verified, if the representation says so.
+   */
+  static ImportedUser parseNdjson(String line) {
+    UserRepresentation user;
+    try {
+      user = JsonSerialization.readValue(line, UserRepresentation.class);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+    String hash =
+        user.getCredentials() == null
+            ? null
+            : user.getCredentials().stream()
+                .filter(
+                    credential -> CredentialRepresentation.PASSWORD.equals(credential.getType()))
+                .map(CredentialRepresentation::getHashedSaltedValue)
+                .findFirst()
+                .orElse(null);
+    return new ImportedUser(
+        user.getUsername(),
+        Boolean.TRUE.equals(user.isEnabled()),
+        user.getEmail(),
+        Boolean.TRUE.equals(user.isEmailVerified()),
+        user.getFirstName(),
+        user.getLastName(),
+        hash);
+  }
+
+  String getRealmId() {
+    return realmId;
+  }
+
+  State getState() {
+    return state;
+  }
+
+  Map<String, Long> importUsers(BufferedReader reader, Function<String, ImportedUser> parser)
+      throws IOException, InterruptedException {
+    state = State.RUNNING;
+    int permits = 2 * parallelism;
+    Semaphore inFlight = new Semaphore(permits);
+    try {
+      List<ImportedUser> batch = new ArrayList<>(batchSize);
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.isBlank() || line.startsWith("#")) {
+          continue;
+        }
+        read.incrementAndGet();
+        try {
+          ImportedUser user = parser.apply(line);
+          if (user.getUsername() == null || LegacyCryptFormat.of(user.getHash()) == null) {
+            skipped.incrementAndGet(); // e.g. locked accounts, whose hash is ! or *
+            continue;
+          }
+          batch.add(user);
+        } catch (IllegalArgumentException e) {
+          LOG.warnf("line %d not imported (%s)", read.get(), e.getMessage());
+          failed.incrementAndGet();
+          continue;
+        }
+        if (batch.size() == batchSize) {
+          submit(inFlight, batch);
+          batch = new ArrayList<>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) {
+        submit(inFlight, batch);
+      }
+      inFlight.acquire(permits); // wait for the batches in flight
+      state = State.COMPLETED;
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      state = State.FAILED;
+      throw e;
+    }
+    LOG.infof("import into realm %s complete: %s", realmId, progress());
+    return progress();
+  }
+
+  private void submit(Semaphore inFlight, List<ImportedUser> batch) throws InterruptedException {
+    inFlight.acquire(); // blocks the reader while the workers are saturated
+    try {
+      executor.execute(
+          () -> {
+            try {
+              importBatch(batch);
+              LOG.infof("import into realm %s in progress: %s", realmId, progress());
+            } finally {
+              inFlight.release();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      inFlight.release();
+      throw e;
+    }
+  }
+
+  private void importBatch(List<ImportedUser> batch) {
+    long[] counts = new long[2]; // created, skipped
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          factory,
+          session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            session.getContext().setRealm(realm);
+            for (ImportedUser importedUser : batch) {
+              if (importUser(session, realm, importedUser)) {
+                counts[0]++;
+              } else {
+                counts[1]++;
+              }
+            }
+          });
+      created.addAndGet(counts[0]);
+      skipped.addAndGet(counts[1]);
+    } catch (RuntimeException e) {
+      LOG.debugf(e, "batch of %d users retried one by one in realm %s", batch.size(), realmId);
+      batch.forEach(this::importOne);
+    }
+  }
+
+  private void importOne(ImportedUser importedUser) {
+    boolean[] imported = new boolean[1];
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          factory,
+          session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            session.getContext().setRealm(realm);
+            imported[0] = importUser(session, realm, importedUser);
+          });
+      (imported[0] ? created : skipped).incrementAndGet();
+    } catch (ModelDuplicateException e) { // e.g. created concurrently, or a duplicate email
+      LOG.debugf("user %s not imported (%s)", importedUser.getUsername(), e.getMessage());
+      skipped.incrementAndGet();
+    } catch (RuntimeException e) {
+      LOG.warnf(e, "user %s not imported into realm %s", importedUser.getUsername(), realmId);
+      failed.incrementAndGet();
+    }
+  }
+
+  private static boolean importUser(
+      KeycloakSession session, RealmModel realm, ImportedUser importedUser) {
+    if (session.users().getUserByUsername(realm, importedUser.getUsername()) != null) {
+      return false; // already imported, or created since
+    }
+    UserModel user = session.users().addUser(realm, importedUser.getUsername());
+    user.setEnabled(importedUser.isEnabled());
+    user.setEmail(importedUser.getEmail());
+    user.setEmailVerified(importedUser.isEmailVerified());
+    user.setFirstName(importedUser.getFirstName());
+    user.setLastName(importedUser.getLastName());
+    session
+        .userCredentialManager()
+        .createCredential(
+            realm,
+            user,
+            PasswordCredentialModel.createFromValues(
+                LegacyCryptFormat.of(importedUser.getHash()).algorithm,
+                new byte[0],
+                0,
+                importedUser.getHash()));
+    return true;
+  }
+
+  Map<String, Long> progress() {
+    Map<String, Long> progress = new LinkedHashMap<>();
+    progress.put("read", read.get());
+    progress.put("created", created.get());
+    progress.put("skipped", skipped.get());
+    progress.put("failed", failed.get());
+    return progress;
+  }
+
+  @Value
+  static class ImportedUser {
+    String username;
+    boolean enabled;
+    String email;
+    boolean emailVerified;
+    String firstName;
+    String lastName;
+    String hash;
+  }
+}
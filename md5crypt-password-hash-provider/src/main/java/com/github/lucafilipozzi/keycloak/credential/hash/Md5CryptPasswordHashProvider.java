@@ -3,13 +3,26 @@ package com.github.lucafilipozzi.keycloak.credential.hash;
 
 import static com.github.lucafilipozzi.keycloak.credential.hash.Md5CryptPasswordHashProviderFactory.PROVIDER_ID;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.nio.charset.StandardCharsets;
 import org.apache.commons.codec.digest.Md5Crypt;
 import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.PasswordPolicy;
 import org.keycloak.models.credential.PasswordCredentialModel;
 
 public class Md5CryptPasswordHashProvider implements PasswordHashProvider {
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  private final KeycloakSession session;
+
+  public Md5CryptPasswordHashProvider() {
+    this(null);
+  }
+
+  public Md5CryptPasswordHashProvider(KeycloakSession session) {
+    this.session = session;
+  }
+
   @Override
   public boolean policyCheck(PasswordPolicy policy, PasswordCredentialModel credential) {
     return credential.getPasswordCredentialData().getAlgorithm().equals(PROVIDER_ID);
@@ -28,8 +41,11 @@ public class Md5CryptPasswordHashProvider implements PasswordHashProvider {
 
   @Override
   public boolean verify(String password, PasswordCredentialModel credential) {
-    String hash = credential.getPasswordSecretData().getValue();
-    return md5Crypt(password, hash).equals(hash);
+    if (!Md5CryptVerifier.verify(password, credential.getPasswordSecretData().getValue())) {
+      return false;
+    }
+    AsyncRehashPasswordHashProviderFactory.recordVerification(session, credential, password);
+    return true;
   }
 
   @Override
@@ -40,8 +56,4 @@ public class Md5CryptPasswordHashProvider implements PasswordHashProvider {
   private String md5Crypt(String password) {
     return Md5Crypt.md5Crypt(password.getBytes(StandardCharsets.UTF_8));
   }
-
-  private String md5Crypt(String password, String salt) {
-    return Md5Crypt.md5Crypt(password.getBytes(StandardCharsets.UTF_8), salt);
-  }
 }
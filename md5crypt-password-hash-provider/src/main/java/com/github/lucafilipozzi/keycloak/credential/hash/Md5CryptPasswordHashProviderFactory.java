@@ -2,34 +2,17 @@
 package com.github.lucafilipozzi.keycloak.credential.hash;
 
 import com.google.auto.service.AutoService;
-import org.keycloak.Config.Scope;
 import org.keycloak.credential.hash.PasswordHashProvider;
 import org.keycloak.credential.hash.PasswordHashProviderFactory;
 import org.keycloak.models.KeycloakSession;
-import org.keycloak.models.KeycloakSessionFactory;
 
 @AutoService(PasswordHashProviderFactory.class)
-public class Md5CryptPasswordHashProviderFactory implements PasswordHashProviderFactory {
+public class Md5CryptPasswordHashProviderFactory extends AbstractLegacyPasswordHashProviderFactory {
   public static final String PROVIDER_ID = "md5-crypt";
 
   @Override
-  public PasswordHashProvider create(KeycloakSession session) {
-    return new Md5CryptPasswordHashProvider();
-  }
-
-  @Override
-  public void init(Scope config) {
-    // intentionally empty
-  }
-
-  @Override
-  public void postInit(KeycloakSessionFactory factory) {
-    // intentionally empty
-  }
-
-  @Override
-  public void close() {
-    // intentionally empty
+  protected PasswordHashProvider createProvider(KeycloakSession session) {
+    return new Md5CryptPasswordHashProvider(session);
   }
 
   @Override
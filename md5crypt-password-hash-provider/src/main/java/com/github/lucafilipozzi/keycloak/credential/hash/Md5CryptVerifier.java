@@ -0,0 +1,212 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Verifies passwords against md5crypt ({@code $1$}) hashes with a handful of allocations per call.
+ *
+ * <p>Each call allocates a pair of MD5 digests and small byte buffers, and reuses them for all of
+ * its rounds; nothing is kept per thread, so no state outlives a redeployment of the provider. The
+ * salt is read straight out of the stored hash and the stored digest is decoded to its raw 16
+ * bytes, which are then compared in constant time with the computed digest; no intermediate
+ * strings are built.
+ */
+final class Md5CryptVerifier {
+  static final String PREFIX = "$1$";
+
+  private static final int MAX_SALT_LENGTH = 8;
+
+  private static final int DIGEST_LENGTH = 16;
+
+  private static final int ENCODED_DIGEST_LENGTH = 22;
+
+  private static final int ROUNDS = 1000;
+
+  private static final String ALPHABET =
+      "./0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+  private static final byte[] PREFIX_BYTES = {'$', '1', '$'};
+
+  // digest byte indices in the order they are packed, three per group of four characters
+  private static final int[][] GROUPS = {
+    {0, 6, 12}, {1, 7, 13}, {2, 8, 14}, {3, 9, 15}, {4, 10, 5}
+  };
+
+  private Md5CryptVerifier() {}
+
+  static boolean verify(String password, String hash) {
+    if (hash == null || !hash.startsWith(PREFIX)) {
+      return false;
+    }
+    int saltEnd = hash.indexOf('$', PREFIX.length());
+    int saltLength = saltEnd - PREFIX.length();
+    if (saltLength < 1
+        || saltLength > MAX_SALT_LENGTH
+        || hash.length() != saltEnd + 1 + ENCODED_DIGEST_LENGTH) {
+      return false;
+    }
+
+    State state = new State();
+    for (int i = 0; i < saltLength; i++) {
+      char c = hash.charAt(PREFIX.length() + i);
+      if (ALPHABET.indexOf(c) < 0) {
+        return false;
+      }
+      state.salt[i] = (byte) c;
+    }
+    if (!decode(hash, saltEnd + 1, state.expected)) {
+      return false;
+    }
+
+    int passwordLength = state.encode(password);
+    try {
+      state.compute(passwordLength, saltLength);
+      return MessageDigest.isEqual(state.computed, state.expected);
+    } finally {
+      Arrays.fill(state.password, 0, passwordLength, (byte) 0);
+    }
+  }
+
+  /** Decodes the 22 character crypt-base64 digest starting at {@code offset} into 16 bytes. */
+  private static boolean decode(String hash, int offset, byte[] digest) {
+    int position = offset;
+    for (int[] group : GROUPS) {
+      int value = decode(hash, position, 4);
+      if (value < 0) {
+        return false;
+      }
+      digest[group[0]] = (byte) (value >>> 16);
+      digest[group[1]] = (byte) (value >>> 8);
+      digest[group[2]] = (byte) value;
+      position += 4;
+    }
+    int value = decode(hash, position, 2);
+    if (value < 0 || value > 0xFF) {
+      return false;
+    }
+    digest[11] = (byte) value;
+    return true;
+  }
+
+  private static int decode(String hash, int offset, int length) {
+    int value = 0;
+    for (int i = length - 1; i >= 0; i--) {
+      int index = ALPHABET.indexOf(hash.charAt(offset + i));
+      if (index < 0) {
+        return -1;
+      }
+      value = (value << 6) | index;
+    }
+    return value;
+  }
+
+  private static final class State {
+    private final MessageDigest md5 = newMd5();
+
+    private final MessageDigest alternate = newMd5();
+
+    private final byte[] computed = new byte[DIGEST_LENGTH];
+
+    private final byte[] expected = new byte[DIGEST_LENGTH];
+
+    private final byte[] salt = new byte[MAX_SALT_LENGTH];
+
+    private byte[] password = new byte[64];
+
+    /** Encodes the password as UTF-8 into the buffer, returning its length. */
+    private int encode(String value) {
+      int length = 0;
+      for (int i = 0; i < value.length(); i++) {
+        if (password.length - length < 4) {
+          byte[] grown = Arrays.copyOf(password, password.length * 2);
+          Arrays.fill(password, (byte) 0);
+          password = grown;
+        }
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          password[length++] = (byte) c;
+        } else if (c < 0x800) {
+          password[length++] = (byte) (0xC0 | (c >>> 6));
+          password[length++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)
+            && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          password[length++] = (byte) (0xF0 | (codePoint >>> 18));
+          password[length++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+          password[length++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+          password[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          password[length++] = '?'; // unpaired surrogate, as String.getBytes would
+        } else {
+          password[length++] = (byte) (0xE0 | (c >>> 12));
+          password[length++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+          password[length++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+      return length;
+    }
+
+    private void compute(int passwordLength, int saltLength) {
+      md5.reset();
+      md5.update(password, 0, passwordLength);
+      md5.update(PREFIX_BYTES);
+      md5.update(salt, 0, saltLength);
+
+      alternate.reset();
+      alternate.update(password, 0, passwordLength);
+      alternate.update(salt, 0, saltLength);
+      alternate.update(password, 0, passwordLength);
+      digest(alternate);
+      for (int remaining = passwordLength; remaining > 0; remaining -= DIGEST_LENGTH) {
+        md5.update(computed, 0, Math.min(remaining, DIGEST_LENGTH));
+      }
+
+      for (int bits = passwordLength; bits != 0; bits >>>= 1) {
+        md5.update((bits & 1) != 0 ? 0 : password[0]);
+      }
+      digest(md5);
+
+      for (int round = 0; round < ROUNDS; round++) {
+        if ((round & 1) != 0) {
+          md5.update(password, 0, passwordLength);
+        } else {
+          md5.update(computed, 0, DIGEST_LENGTH);
+        }
+        if (round % 3 != 0) {
+          md5.update(salt, 0, saltLength);
+        }
+        if (round % 7 != 0) {
+          md5.update(password, 0, passwordLength);
+        }
+        if ((round & 1) != 0) {
+          md5.update(computed, 0, DIGEST_LENGTH);
+        } else {
+          md5.update(password, 0, passwordLength);
+        }
+        digest(md5);
+      }
+    }
+
+    /** Completes the digest into {@link #computed}, leaving the digest reset for reuse. */
+    private void digest(MessageDigest digest) {
+      try {
+        digest.digest(computed, 0, DIGEST_LENGTH);
+      } catch (DigestException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private static MessageDigest newMd5() {
+      try {
+        return MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,96 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import org.keycloak.models.ModelException;
+
+/**
+ * Caps the number of password verifications running concurrently on this node. Callers beyond the
+ * cap wait, in arrival order, for at most the queue timeout and are then rejected, so that a burst
+ * of logins cannot occupy every request thread with hashing.
+ */
+public class VerificationBulkhead implements VerificationBulkheadMXBean {
+  private final int maxConcurrent;
+
+  private final long queueTimeoutNanos;
+
+  private final Semaphore permits;
+
+  private final AtomicLong verifiedCount = new AtomicLong();
+
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  public VerificationBulkhead(int maxConcurrent, long queueTimeoutMillis) {
+    this.maxConcurrent = maxConcurrent;
+    this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+    this.permits = new Semaphore(maxConcurrent, true);
+  }
+
+  /**
+   * Runs the verification once a permit is available.
+   *
+   * @throws ModelException if no permit became available within the queue timeout
+   */
+  public boolean verify(BooleanSupplier verification) {
+    long start = System.nanoTime();
+    boolean acquired;
+    try {
+      // only the timed form honours fairness; the untimed one would barge ahead of waiters
+      acquired = permits.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      acquired = false;
+    }
+    long waitNanos = System.nanoTime() - start;
+    maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    if (!acquired) {
+      rejectedCount.incrementAndGet();
+      throw new ModelException("password verification capacity exhausted");
+    }
+    totalWaitNanos.addAndGet(waitNanos);
+    try {
+      return verification.getAsBoolean();
+    } finally {
+      permits.release();
+      verifiedCount.incrementAndGet();
+    }
+  }
+
+  @Override
+  public int getActiveCount() {
+    return maxConcurrent - permits.availablePermits();
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return permits.getQueueLength();
+  }
+
+  @Override
+  public long getVerifiedCount() {
+    return verifiedCount.get();
+  }
+
+  @Override
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  @Override
+  public double getMeanWaitMillis() {
+    long verified = verifiedCount.get();
+    return verified == 0L ? 0.0 : totalWaitNanos.get() / 1e6 / verified;
+  }
+
+  @Override
+  public double getMaxWaitMillis() {
+    return maxWaitNanos.get() / 1e6;
+  }
+}
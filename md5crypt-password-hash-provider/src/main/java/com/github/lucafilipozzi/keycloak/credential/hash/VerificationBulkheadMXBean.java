@@ -0,0 +1,16 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+public interface VerificationBulkheadMXBean {
+  int getActiveCount();
+
+  int getQueueDepth();
+
+  long getVerifiedCount();
+
+  long getRejectedCount();
+
+  double getMeanWaitMillis();
+
+  double getMaxWaitMillis();
+}
@@ -0,0 +1,72 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+/**
+ * Remembers, for a short while, passwords that were successfully verified against a credential.
+ * Entries are keyed by an HMAC, under a key generated by and never leaving this node, of the
+ * credential id, its stored hash and the password; so no password is held, and an entry stops
+ * matching as soon as the credential changes. Failed verifications are never remembered.
+ */
+class VerifiedCredentialCache {
+  private static final String ALGORITHM = "HmacSHA256";
+
+  private final SecretKeySpec key;
+
+  private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+  private final Cache<ByteBuffer, Boolean> verified;
+
+  VerifiedCredentialCache(long ttlMillis, long maximumSize) {
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    this.key = new SecretKeySpec(secret, ALGORITHM);
+    this.verified =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+            .maximumSize(maximumSize)
+            .build();
+  }
+
+  boolean contains(String password, PasswordCredentialModel credential) {
+    return verified.getIfPresent(keyOf(password, credential)) != null;
+  }
+
+  void add(String password, PasswordCredentialModel credential) {
+    verified.put(keyOf(password, credential), Boolean.TRUE);
+  }
+
+  private ByteBuffer keyOf(String password, PasswordCredentialModel credential) {
+    Mac mac = macs.get();
+    update(mac, credential.getId());
+    update(mac, credential.getPasswordSecretData().getValue());
+    update(mac, password);
+    return ByteBuffer.wrap(mac.doFinal());
+  }
+
+  private static void update(Mac mac, String value) {
+    byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, bytes.length)); // length-prefixed
+    mac.update(bytes);
+  }
+
+  private Mac newMac() {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.keycloak.models.KeycloakSessionFactory;
+
+public class AsyncRehasherTest {
+  /** Creates a factory whose sessions block until released, then fail. */
+  private static KeycloakSessionFactory factory(CountDownLatch started, CountDownLatch release) {
+    return (KeycloakSessionFactory)
+        Proxy.newProxyInstance(
+            AsyncRehasherTest.class.getClassLoader(),
+            new Class<?>[] {KeycloakSessionFactory.class},
+            (proxy, method, args) -> {
+              started.countDown();
+              release.await();
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  @Test
+  public void testDroppedRatherThanQueuedWhenBusy() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AsyncRehasher rehasher = new AsyncRehasher(factory(started, release), "pbkdf2-sha256", 1);
+    try {
+      assertThat(rehasher.offer("1", "$1$salt$hash", "password"), is(true));
+      assertThat(started.await(10L, TimeUnit.SECONDS), is(true));
+      assertThat(rehasher.getActiveCount(), is(equalTo(1)));
+
+      assertThat(rehasher.offer("2", "$1$salt$hash", "password"), is(false));
+      assertThat(rehasher.getDroppedCount(), is(equalTo(1L)));
+    } finally {
+      release.countDown();
+      rehasher.shutdown();
+    }
+  }
+}
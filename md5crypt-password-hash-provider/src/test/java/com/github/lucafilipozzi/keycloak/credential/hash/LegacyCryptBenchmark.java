@@ -0,0 +1,77 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.digest.Md5Crypt;
+import org.apache.commons.codec.digest.Sha2Crypt;
+import org.mindrot.jbcrypt.BCrypt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of a single verification per legacy crypt format, at the default rounds/cost
+ * of each, to predict the login CPU cost of a migrated user base. Run as {@link Md5CryptBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class LegacyCryptBenchmark {
+  private static final String PASSWORD = "testingonly$$1234";
+
+  @Param({"md5", "sha256", "sha512", "bcrypt"})
+  private String format;
+
+  private String hash;
+
+  @Setup
+  public void setup() {
+    byte[] password = PASSWORD.getBytes(StandardCharsets.UTF_8);
+    switch (format) {
+      case "md5":
+        hash = Md5Crypt.md5Crypt(password);
+        break;
+      case "sha256":
+        hash = Sha2Crypt.sha256Crypt(password); // 5000 rounds
+        break;
+      case "sha512":
+        hash = Sha2Crypt.sha512Crypt(password); // 5000 rounds
+        break;
+      case "bcrypt":
+        hash = "$2y" + BCrypt.hashpw(PASSWORD, BCrypt.gensalt(10)).substring(3);
+        break;
+      default:
+        throw new IllegalArgumentException(format);
+    }
+  }
+
+  @Benchmark
+  public boolean verify() {
+    return LegacyCryptFormat.verifyAny(PASSWORD, hash);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(LegacyCryptBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,65 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.codec.digest.Md5Crypt;
+import org.apache.commons.codec.digest.Sha2Crypt;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.mindrot.jbcrypt.BCrypt;
+
+@RequiredArgsConstructor
+@RunWith(Parameterized.class)
+public class LegacyCryptFormatTest {
+  private static final String PASSWORD = "Hello$$1234";
+
+  private final LegacyCryptFormat format;
+  private final String hash;
+
+  @Parameters
+  public static List<Object[]> data() {
+    String bcrypt = BCrypt.hashpw(PASSWORD, BCrypt.gensalt(4));
+    return Arrays.asList(
+        new Object[][] {
+          /* format, hash */
+          {LegacyCryptFormat.MD5, Md5Crypt.md5Crypt(bytes())},
+          {LegacyCryptFormat.SHA256, Sha2Crypt.sha256Crypt(bytes())},
+          {LegacyCryptFormat.SHA256, Sha2Crypt.sha256Crypt(bytes(), "$5$rounds=1000$salt")},
+          {LegacyCryptFormat.SHA512, Sha2Crypt.sha512Crypt(bytes())},
+          {LegacyCryptFormat.SHA512, Sha2Crypt.sha512Crypt(bytes(), "$6$rounds=2000$salt")},
+          {LegacyCryptFormat.BCRYPT, bcrypt},
+          {LegacyCryptFormat.BCRYPT, "$2y" + bcrypt.substring(3)},
+          {LegacyCryptFormat.BCRYPT, "$2b" + bcrypt.substring(3)}
+        });
+  }
+
+  private static byte[] bytes() { // commons-codec clears the key it is given
+    return PASSWORD.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void test() {
+    assertThat(LegacyCryptFormat.of(hash), is(equalTo(format)));
+    assertThat(LegacyCryptFormat.verifyAny(PASSWORD, hash), is(true));
+    assertThat(LegacyCryptFormat.verifyAny(PASSWORD + "!", hash), is(false));
+  }
+
+  @Test
+  public void testUnsupported() {
+    assertThat(LegacyCryptFormat.of("$2x$10$abc"), is(nullValue()));
+    assertThat(LegacyCryptFormat.of("$7$abc"), is(nullValue()));
+    assertThat(LegacyCryptFormat.of("!"), is(nullValue()));
+    assertThat(LegacyCryptFormat.verifyAny(PASSWORD, "$6$rounds=x$salt$abc"), is(false));
+    assertThat(LegacyCryptFormat.verifyAny(PASSWORD, "$2a$99$abc"), is(false));
+  }
+}
@@ -0,0 +1,72 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.lucafilipozzi.keycloak.credential.hash.LegacyUserImporter.ImportedUser;
+import org.junit.Test;
+
+public class LegacyUserImporterTest {
+  private static final String HASH = "$1$PhQy/mw.$dDp.eDLeG6H0gz.WlhNV./";
+
+  @Test
+  public void testParseShadow() {
+    ImportedUser user = LegacyUserImporter.parseShadow("ab001:" + HASH + ":19000:0:99999:7:::");
+    assertThat(user.getUsername(), is(equalTo("ab001")));
+    assertThat(user.getHash(), is(equalTo(HASH)));
+    assertThat(user.getFirstName(), is(nullValue()));
+    assertThat(user.isEnabled(), is(true));
+    assertThat(user.isEmailVerified(), is(false));
+  }
+
+  @Test
+  public void testParsePasswd() {
+    ImportedUser user =
+        LegacyUserImporter.parseShadow(
+            "ab001:" + HASH + ":1001:1001:Alice Doe,,,:/home/ab001:/bin/sh");
+    assertThat(user.getHash(), is(equalTo(HASH)));
+    assertThat(user.getFirstName(), is(equalTo("Alice")));
+    assertThat(user.getLastName(), is(equalTo("Doe")));
+  }
+
+  @Test
+  public void testParseNdjson() {
+    ImportedUser user =
+        LegacyUserImporter.parseNdjson(
+            "{\"username\":\"ab001\",\"email\":\"alice.doe@example.com\",\"credentials\":"
+                + "[{\"type\":\"password\",\"algorithm\":\"md5-crypt\",\"hashedSaltedValue\":\""
+                + HASH
+                + "\"}]}");
+    assertThat(user.getUsername(), is(equalTo("ab001")));
+    assertThat(user.getEmail(), is(equalTo("alice.doe@example.com")));
+    assertThat(user.getHash(), is(equalTo(HASH)));
+    assertThat(user.isEnabled(), is(false)); // not said to be
+    assertThat(user.isEmailVerified(), is(false));
+  }
+
+  @Test
+  public void testParseNdjsonKeepsEnabledAndEmailVerified() {
+    String line =
+        "{\"username\":\"ab001\",\"enabled\":%s,\"email\":\"alice.doe@example.com\","
+            + "\"emailVerified\":%s,\"credentials\":[{\"type\":\"password\","
+            + "\"hashedSaltedValue\":\""
+            + HASH
+            + "\"}]}";
+
+    ImportedUser disabled = LegacyUserImporter.parseNdjson(String.format(line, false, true));
+    assertThat(disabled.isEnabled(), is(false));
+    assertThat(disabled.isEmailVerified(), is(true));
+
+    ImportedUser enabled = LegacyUserImporter.parseNdjson(String.format(line, true, false));
+    assertThat(enabled.isEnabled(), is(true));
+    assertThat(enabled.isEmailVerified(), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseMalformed() {
+    LegacyUserImporter.parseShadow("ab001");
+  }
+}
@@ -0,0 +1,56 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.digest.Md5Crypt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares md5crypt verification through commons-codec with {@link Md5CryptVerifier}. Run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.github.lucafilipozzi.keycloak.credential.hash.Md5CryptBenchmark}; the GC
+ * profiler reports allocation per operation as {@code gc.alloc.rate.norm}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class Md5CryptBenchmark {
+  private static final String PASSWORD = "testingonly$$1234";
+
+  private static final String HASH = "$1$PhQy/mw.$dDp.eDLeG6H0gz.WlhNV./";
+
+  @Benchmark
+  public boolean commonsCodec() {
+    return Md5Crypt.md5Crypt(PASSWORD.getBytes(StandardCharsets.UTF_8), HASH).equals(HASH);
+  }
+
+  @Benchmark
+  public boolean verifier() {
+    return Md5CryptVerifier.verify(PASSWORD, HASH);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(Md5CryptBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,44 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.apache.commons.codec.digest.Md5Crypt;
+import org.junit.Test;
+
+public class Md5CryptVerifierTest {
+  private static final String HASH = "$1$PhQy/mw.$dDp.eDLeG6H0gz.WlhNV./";
+
+  @Test
+  public void testAgreesWithCommonsCodec() {
+    Random random = new Random(42L);
+    String[] passwords = {"", "a", "pässwörd", "日本語のパスワード", "emoji😀", "x".repeat(100)};
+    for (String password : passwords) {
+      String hash = Md5Crypt.md5Crypt(password.getBytes(StandardCharsets.UTF_8));
+      assertThat(password, Md5CryptVerifier.verify(password, hash), is(true));
+      assertThat(password, Md5CryptVerifier.verify(password + "!", hash), is(false));
+    }
+    for (int i = 0; i < 100; i++) {
+      String password = Long.toString(random.nextLong(), 36);
+      String salt = "$1$" + Long.toString(Math.abs(random.nextLong()), 36).substring(0, 1 + i % 8);
+      String hash = Md5Crypt.md5Crypt(password.getBytes(StandardCharsets.UTF_8), salt);
+      assertThat(hash, Md5CryptVerifier.verify(password, hash), is(true));
+    }
+  }
+
+  @Test
+  public void testRejectsMalformedHashes() {
+    assertThat(Md5CryptVerifier.verify("testingonly$$1234", HASH), is(true));
+    assertThat(Md5CryptVerifier.verify("testingonly$$1234", null), is(false));
+    assertThat(Md5CryptVerifier.verify("testingonly$$1234", "$5$PhQy/mw.$dDp"), is(false));
+    assertThat(
+        Md5CryptVerifier.verify("testingonly$$1234", "$1$PhQy/mw.$dDp.eDLeG6H0gz"), is(false));
+    assertThat(
+        Md5CryptVerifier.verify("testingonly$$1234", "$1$$dDp.eDLeG6H0gz.WlhNV./"), is(false));
+    assertThat(Md5CryptVerifier.verify("testingonly$$1234", HASH.replace('/', '!')), is(false));
+    assertThat(Md5CryptVerifier.verify("testingonly$$1234", HASH.replace("V./", "V.z")), is(false));
+  }
+}
@@ -0,0 +1,48 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.keycloak.models.ModelException;
+
+public class VerificationBulkheadTest {
+  @Test
+  public void testRejectsWhenSaturated() throws InterruptedException {
+    VerificationBulkhead bulkhead = new VerificationBulkhead(1, 10L);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread holder =
+        new Thread(
+            () ->
+                bulkhead.verify(
+                    () -> {
+                      started.countDown();
+                      try {
+                        release.await();
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                      return true;
+                    }));
+    holder.start();
+    started.await();
+
+    assertThat(bulkhead.getActiveCount(), is(equalTo(1)));
+    try {
+      bulkhead.verify(() -> true);
+      throw new AssertionError("expected rejection");
+    } catch (ModelException e) {
+      assertThat(bulkhead.getRejectedCount(), is(equalTo(1L)));
+    }
+
+    release.countDown();
+    holder.join();
+    assertThat(bulkhead.verify(() -> true), is(true));
+    assertThat(bulkhead.getVerifiedCount(), is(equalTo(2L)));
+    assertThat(bulkhead.getActiveCount(), is(equalTo(0)));
+  }
+}
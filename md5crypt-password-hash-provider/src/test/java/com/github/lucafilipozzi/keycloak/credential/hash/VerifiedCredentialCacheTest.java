@@ -0,0 +1,37 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.credential.hash;
+
+import static com.github.lucafilipozzi.keycloak.credential.hash.Md5CryptPasswordHashProviderFactory.PROVIDER_ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.junit.Test;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+public class VerifiedCredentialCacheTest {
+  private static final String PASSWORD = "testingonly$$1234";
+
+  private static PasswordCredentialModel credential(String id, String hash) {
+    PasswordCredentialModel credential =
+        PasswordCredentialModel.createFromValues(PROVIDER_ID, new byte[0], 0, hash);
+    credential.setId(id);
+    return credential;
+  }
+
+  @Test
+  public void test() {
+    VerifiedCredentialCache cache = new VerifiedCredentialCache(60_000L, 10L);
+    PasswordCredentialModel credential = credential("id", "$1$PhQy/mw.$dDp.eDLeG6H0gz.WlhNV./");
+    assertThat(cache.contains(PASSWORD, credential), is(false));
+
+    cache.add(PASSWORD, credential);
+    assertThat(cache.contains(PASSWORD, credential), is(true));
+    assertThat(cache.contains(PASSWORD + "!", credential), is(false));
+    assertThat(
+        cache.contains(PASSWORD, credential("other", "$1$PhQy/mw.$dDp.eDLeG6H0gz.WlhNV./")),
+        is(false));
+    assertThat(
+        cache.contains(PASSWORD, credential("id", "$1$v8ZrPcRS$mmBfzNIgRLnYO6jL3mWhr/")),
+        is(false));
+  }
+}
@@ -0,0 +1,98 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Audit channel for require-role decisions. Every denial (and misconfiguration) is recorded, and
+ * grants at {@code grantSampleRate}; records are written, one line each under this class's log
+ * category, by a single background thread from a bounded in-memory queue. Recording never blocks
+ * the request: when the queue is full, the record is dropped and counted.
+ */
+@JBossLog
+public class RequireRoleAudit implements RequireRoleAuditMXBean {
+  public enum Outcome {
+    GRANTED,
+    DENIED,
+    MISCONFIGURED
+  }
+
+  private final double grantSampleRate;
+
+  private final ThreadPoolExecutor executor;
+
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  public RequireRoleAudit(double grantSampleRate, int capacity) {
+    this.grantSampleRate = grantSampleRate;
+    this.executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacity),
+            runnable -> {
+              Thread thread = new Thread(runnable, "require-role-audit");
+              thread.setDaemon(true);
+              return thread;
+            },
+            (runnable, executor) -> droppedCount.incrementAndGet());
+  }
+
+  public void record(RequireRoleContext context, String authenticator, Outcome outcome) {
+    record(context, authenticator, outcome, null, null);
+  }
+
+  public void record(
+      RequireRoleContext context,
+      String authenticator,
+      Outcome outcome,
+      String username,
+      String requiredRoles) {
+    if (outcome == Outcome.GRANTED
+        && (grantSampleRate <= 0.0d
+            || ThreadLocalRandom.current().nextDouble() >= grantSampleRate)) {
+      return;
+    }
+    // capture on the request thread, format on the audit thread
+    String realm = context.getRealm().getName();
+    String client = context.getClient().getClientId();
+    String config = context.getAuthenticatorConfig().getAlias();
+    boolean impersonator = context.getApplyToImpersonator();
+    boolean negated = context.getNegateResult();
+    executor.execute(
+        () ->
+            LOG.infof(
+                "outcome=%s realm=%s client=%s user=%s authenticator=%s config=%s role=\"%s\""
+                    + " impersonator=%s negated=%s",
+                outcome,
+                realm,
+                client,
+                username,
+                authenticator,
+                config,
+                requiredRoles,
+                impersonator,
+                negated));
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  @Override
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,8 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+public interface RequireRoleAuditMXBean {
+  int getQueueDepth();
+
+  long getDroppedCount();
+}
@@ -37,6 +37,7 @@ public class RequireRoleConstants {
                 "Specify the name of the role that a user is required to have for successful authentication. "
                     + "This can be a realm or client role. Client roles have the form 'clientId.roleName' for a specific client. "
                     + "Alternately, the expression '${clientId}.roleName' may be used to specify a role of the current client. "
+                    + "Roles may be combined with '!' (not), '&' (and), '|' (or) and parentheses, for example '(a.admin | ${clientId}.ops) & !suspended'. "
                     + "Note that if the required role name does not resolve to a role, then the authentication will fail. "
                     + "Note further that requiring a role of an impersonator must only be configured in browser/cookie flows.")
             .add()
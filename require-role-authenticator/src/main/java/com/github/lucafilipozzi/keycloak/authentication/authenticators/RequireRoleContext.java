@@ -1,7 +1,7 @@
 // © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
 package com.github.lucafilipozzi.keycloak.authentication.authenticators;
 
-import java.util.Map;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.Delegate;
@@ -12,17 +12,11 @@ import org.keycloak.models.ClientModel;
 public class RequireRoleContext {
   @Delegate @NonNull private final AuthenticationFlowContext context;
 
-  private Boolean applyToImpersonator = null;
-
-  private Boolean enforceStrictly = null;
-
-  private Boolean negateResult = null;
-
-  private String requiredRoleName = null;
+  private final RequireRoleDecisionCache decisions; // null if disabled
 
   private ClientModel client = null;
 
-  private Map<String, String> config = null;
+  private RequireRoleSettings settings = null;
 
   public ClientModel getClient() {
     if (client == null) {
@@ -32,39 +26,49 @@ public class RequireRoleContext {
   }
 
   public Boolean getApplyToImpersonator() {
-    if (applyToImpersonator == null) {
-      applyToImpersonator =
-          Boolean.parseBoolean(getConfig().get(RequireRoleConstants.APPLY_TO_IMPERSONATOR));
-    }
-    return applyToImpersonator;
+    return getSettings().isApplyToImpersonator();
   }
 
   public Boolean getEnforceStrictly() {
-    if (enforceStrictly == null) {
-      enforceStrictly =
-          Boolean.parseBoolean(getConfig().get(RequireRoleConstants.ENFORCE_STRICTLY));
-    }
-    return enforceStrictly;
+    return getSettings().isEnforceStrictly();
   }
 
   public Boolean getNegateResult() {
-    if (negateResult == null) {
-      negateResult = Boolean.parseBoolean(getConfig().get(RequireRoleConstants.NEGATE_RESULT));
-    }
-    return negateResult;
+    return getSettings().isNegateResult();
+  }
+
+  public RoleExpression getRequiredRoles() {
+    return getSettings().getRequiredRoles();
+  }
+
+  RequireRoleDecisionCache getDecisions() {
+    return decisions;
   }
 
-  public String getRequiredRoleName() {
-    if (requiredRoleName == null) {
-      requiredRoleName = getConfig().get(RequireRoleConstants.REQUIRED_ROLE_NAME);
+  /**
+   * Returns the key under which the decision for the targeted user is cached, or null if it must
+   * not be, as the realm's role mapping changes are not tracked.
+   */
+  String getDecisionKey(String targetedUserId) {
+    String mappingVersion = RoleGraphs.getMappingVersion(getRealm());
+    if (mappingVersion == null) {
+      return null;
     }
-    return requiredRoleName;
+    return String.join(
+        "/",
+        getRealm().getId(),
+        targetedUserId,
+        context.getAuthenticatorConfig().getId(),
+        getClient().getId(),
+        getSettings().getStamp(),
+        mappingVersion);
   }
 
-  private Map<String, String> getConfig() {
-    if (config == null) {
-      config = context.getAuthenticatorConfig().getConfig();
+  private RequireRoleSettings getSettings() {
+    if (settings == null) {
+      settings =
+          RequireRoleSettings.resolve(getRealm(), getClient(), context.getAuthenticatorConfig());
     }
-    return config;
+    return settings;
   }
 }
@@ -0,0 +1,65 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.Value;
+
+/**
+ * Remembers, for a short while, the decisions of require-role checks, so that a user retrying in
+ * a tight loop does not repeat the role expansion each time. Keys include the realm's role mapping
+ * version, so that any change to role mappings, group memberships, groups or roles recorded by the
+ * {@code role-graph} event listener retires every entry of the realm on every node; the time to
+ * live bounds how long a decision can outlive a change that was not recorded.
+ */
+public class RequireRoleDecisionCache implements RequireRoleDecisionCacheMXBean {
+  private final Cache<String, Decision> decisions;
+
+  public RequireRoleDecisionCache(long ttlMillis, long maximumSize) {
+    this.decisions =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build();
+  }
+
+  Decision get(String key, Supplier<Decision> decide) {
+    Decision decision = decisions.getIfPresent(key);
+    if (decision == null) {
+      decision = decide.get();
+      decisions.put(key, decision);
+    }
+    return decision;
+  }
+
+  @Override
+  public long getSize() {
+    return decisions.size();
+  }
+
+  @Override
+  public long getHitCount() {
+    return decisions.stats().hitCount();
+  }
+
+  @Override
+  public long getMissCount() {
+    return decisions.stats().missCount();
+  }
+
+  @Override
+  public double getHitRate() {
+    return decisions.stats().hitRate();
+  }
+
+  /** Whether the targeted user has the required role and, if so, the impersonator's roles. */
+  @Value
+  static class Decision {
+    boolean granted;
+
+    String impersonatorRoles; // null if not applicable
+  }
+}
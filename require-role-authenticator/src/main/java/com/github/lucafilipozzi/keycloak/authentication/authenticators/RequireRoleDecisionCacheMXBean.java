@@ -0,0 +1,12 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+public interface RequireRoleDecisionCacheMXBean {
+  long getSize();
+
+  long getHitCount();
+
+  long getMissCount();
+
+  double getHitRate();
+}
@@ -0,0 +1,141 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleAudit.Outcome;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import lombok.RequiredArgsConstructor;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager.AuthResult;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+
+/**
+ * Streams the decision of a require-role authenticator configuration, or of an ad-hoc role
+ * requirement, for every user of the realm, so that the effect of a change of required role may be
+ * known before it is made.
+ */
+@RequiredArgsConstructor
+public class RequireRoleEvaluationResourceProvider implements RealmResourceProvider {
+  static final int MAX_BATCH_SIZE = 5000;
+
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  private final KeycloakSession session;
+
+  private final ExecutorService workers;
+
+  private final int maxParallelism;
+
+  @Override
+  public Object getResource() {
+    return this;
+  }
+
+  @GET
+  @Produces("application/x-ndjson")
+  public Response evaluate(
+      @QueryParam("configId") String configId,
+      @QueryParam("roleName") String roleName,
+      @QueryParam("applyToImpersonator") @DefaultValue("false") boolean applyToImpersonator,
+      @QueryParam("negateResult") @DefaultValue("false") boolean negateResult,
+      @QueryParam("enforceStrictly") @DefaultValue("false") boolean enforceStrictly,
+      @QueryParam("impersonating") @DefaultValue("true") boolean impersonating,
+      @QueryParam("clientId") String clientId,
+      @QueryParam("outcome") String outcome,
+      @QueryParam("batchSize") @DefaultValue("1000") int batchSize,
+      @QueryParam("parallelism") @DefaultValue("4") int parallelism) {
+    RealmModel realm = session.getContext().getRealm();
+    requireViewUsers(realm);
+
+    Map<String, String> config;
+    if (configId != null) {
+      AuthenticatorConfigModel configModel = realm.getAuthenticatorConfigById(configId);
+      if (configModel == null) {
+        throw new NotFoundException("authenticator config not found");
+      }
+      config = configModel.getConfig();
+    } else if (roleName != null) {
+      config =
+          Map.of(
+              RequireRoleConstants.REQUIRED_ROLE_NAME, roleName,
+              RequireRoleConstants.APPLY_TO_IMPERSONATOR, String.valueOf(applyToImpersonator),
+              RequireRoleConstants.NEGATE_RESULT, String.valueOf(negateResult),
+              RequireRoleConstants.ENFORCE_STRICTLY, String.valueOf(enforceStrictly));
+    } else {
+      throw new BadRequestException("configId or roleName is required");
+    }
+
+    ClientModel client = null;
+    if (clientId != null) {
+      client = realm.getClientByClientId(clientId);
+      if (client == null) {
+        throw new NotFoundException("client not found");
+      }
+    } else if (Boolean.parseBoolean(config.get(RequireRoleConstants.APPLY_TO_IMPERSONATOR))
+        || String.valueOf(config.get(RequireRoleConstants.REQUIRED_ROLE_NAME))
+            .contains(RequireRoleConstants.CLIENT_ID_PLACEHOLDER)) {
+      throw new BadRequestException("clientId is required for this role requirement");
+    }
+
+    Outcome only;
+    try {
+      only = outcome == null ? null : Outcome.valueOf(outcome.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException("outcome must be granted or denied");
+    }
+    if (batchSize < 1 || batchSize > MAX_BATCH_SIZE || parallelism < 1) {
+      throw new BadRequestException(
+          "batchSize must be between 1 and " + MAX_BATCH_SIZE + " and parallelism positive");
+    }
+
+    RequireRoleSettings settings = RequireRoleSettings.parse(realm, client, config);
+    if (settings.getRequiredRoles() == null) {
+      throw new BadRequestException("required role name is malformed or names an unknown role");
+    }
+
+    RequireRoleEvaluator evaluator =
+        new RequireRoleEvaluator(
+            session.getKeycloakSessionFactory(),
+            realm.getId(),
+            client == null ? null : client.getId(),
+            settings,
+            RoleGraphs.get(realm, settings.getRequiredRoles().getRoleIds()),
+            impersonating,
+            only,
+            batchSize,
+            Math.min(parallelism, maxParallelism),
+            workers);
+    return Response.ok((StreamingOutput) evaluator::evaluate).build();
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+
+  private void requireViewUsers(RealmModel realm) {
+    AuthResult authResult = new AppAuthManager.BearerTokenAuthenticator(session).authenticate();
+    if (authResult == null) {
+      throw new NotAuthorizedException("Bearer");
+    }
+    AdminAuth adminAuth =
+        new AdminAuth(realm, authResult.getToken(), authResult.getUser(), authResult.getClient());
+    AdminPermissions.evaluator(session, realm, adminAuth).users().requireView();
+  }
+}
@@ -0,0 +1,60 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import com.google.auto.service.AutoService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+@AutoService(RealmResourceProviderFactory.class)
+public class RequireRoleEvaluationResourceProviderFactory implements RealmResourceProviderFactory {
+  public static final String PROVIDER_ID = "require-role-evaluation";
+
+  private int maxParallelism;
+
+  private ThreadPoolExecutor workers;
+
+  @Override
+  public RealmResourceProvider create(KeycloakSession session) {
+    return new RequireRoleEvaluationResourceProvider(session, workers, maxParallelism);
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    maxParallelism = Math.max(1, config.getInt("maxParallelism", 4));
+    workers =
+        new ThreadPoolExecutor(
+            maxParallelism,
+            maxParallelism,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), // bounded by the pages each evaluation keeps in flight
+            runnable -> {
+              Thread thread = new Thread(runnable, "require-role-evaluation-worker");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    // intentionally empty
+  }
+
+  @Override
+  public void close() {
+    if (workers != null) {
+      workers.shutdownNow();
+    }
+  }
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+}
@@ -0,0 +1,276 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleAudit.Outcome;
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
+
+/**
+ * Evaluates require-role settings against every user of a realm, writing one line of NDJSON per
+ * user and a final line of counts per outcome. Users are read a page at a time, by id, and each
+ * page is evaluated in its own transaction on the given workers, shared with other evaluations, its
+ * role mappings and group memberships read in two queries; at most two pages per worker are held in
+ * memory at any time, whatever the size of the realm. Users linked to a federation provider are
+ * read through the user model instead, so that the role and group mappings of its mappers count.
+ */
+@JBossLog
+@RequiredArgsConstructor
+class RequireRoleEvaluator {
+  private static final String USERS_QUERY =
+      "select u.id, u.username, u.federationLink from UserEntity u"
+          + " where u.realmId = :realmId and u.serviceAccountClientLink is null and u.id > :after"
+          + " order by u.id";
+
+  private static final String ROLE_MAPPINGS_QUERY =
+      "select m.user.id, m.roleId from UserRoleMappingEntity m where m.user.id in :userIds";
+
+  private static final String GROUP_MEMBERSHIPS_QUERY =
+      "select m.user.id, m.groupId from UserGroupMembershipEntity m where m.user.id in :userIds";
+
+  private final KeycloakSessionFactory factory;
+
+  private final String realmId;
+
+  private final String clientId; // internal id; null if the settings do not need a client
+
+  private final RequireRoleSettings settings;
+
+  private final CompiledRoleGraph graph;
+
+  private final boolean impersonating; // whether a requirement of the impersonator is in play
+
+  private final Outcome only; // null to write every outcome
+
+  private final int batchSize;
+
+  private final int parallelism;
+
+  private final ExecutorService executor;
+
+  private final AtomicLong granted = new AtomicLong();
+
+  private final AtomicLong denied = new AtomicLong();
+
+  private final AtomicLong failed = new AtomicLong();
+
+  private final AtomicReference<IOException> writeFailure = new AtomicReference<>();
+
+  void evaluate(OutputStream out) throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    int permits = 2 * parallelism;
+    Semaphore inFlight = new Semaphore(permits);
+    try {
+      String after = "";
+      List<Object[]> page;
+      do {
+        page = readPage(after);
+        if (page.isEmpty()) {
+          break;
+        }
+        after = (String) page.get(page.size() - 1)[0];
+        submit(inFlight, page, writer);
+      } while (page.size() == batchSize && writeFailure.get() == null);
+      while (!inFlight.tryAcquire(permits, 1L, TimeUnit.SECONDS)) { // every page written
+        if (executor.isShutdown()) { // queued pages were discarded and will never be written
+          throw new InterruptedException("evaluation workers shut down");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("evaluation of realm " + realmId + " interrupted");
+    }
+    if (writeFailure.get() != null) {
+      throw writeFailure.get(); // most likely, the client went away
+    }
+
+    LOG.infof("evaluation of realm %s complete: %s", realmId, counts());
+    Map<String, Object> summary = new LinkedHashMap<>();
+    summary.put("counts", counts());
+    writer.write(JsonSerialization.writeValueAsString(summary));
+    writer.write('\n');
+    writer.flush();
+  }
+
+  private List<Object[]> readPage(String after) {
+    List<Object[]> page = new ArrayList<>(batchSize);
+    KeycloakModelUtils.runJobInTransaction(
+        factory,
+        session ->
+            getEntityManager(session)
+                .createQuery(USERS_QUERY, Object[].class)
+                .setParameter("realmId", realmId)
+                .setParameter("after", after)
+                .setMaxResults(batchSize)
+                .getResultStream()
+                .forEach(page::add));
+    return page;
+  }
+
+  private void submit(Semaphore inFlight, List<Object[]> page, Writer writer)
+      throws InterruptedException {
+    inFlight.acquire(); // blocks the reader while the workers are saturated
+    try {
+      executor.execute(() -> evaluateAndWrite(inFlight, page, writer));
+    } catch (RejectedExecutionException e) { // the node is shutting down
+      inFlight.release();
+      throw new InterruptedException("evaluation workers shut down");
+    }
+  }
+
+  private void evaluateAndWrite(Semaphore inFlight, List<Object[]> page, Writer writer) {
+    try {
+      String lines = evaluatePage(page);
+      synchronized (writer) {
+        writer.write(lines);
+        writer.flush();
+      }
+    } catch (IOException e) {
+      writeFailure.compareAndSet(null, e);
+    } finally {
+      inFlight.release();
+    }
+  }
+
+  private String evaluatePage(List<Object[]> page) throws IOException {
+    List<String> userIds = page.stream().map(row -> (String) row[0]).collect(Collectors.toList());
+    List<Outcome> outcomes = new ArrayList<>(page.size());
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          factory,
+          session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            ClientModel client = clientId == null ? null : realm.getClientById(clientId);
+            String groupVersion = RoleGraphs.getGroupVersion(realm);
+            EntityManager em = getEntityManager(session);
+            Map<String, List<String>> roleIds = readByUser(em, ROLE_MAPPINGS_QUERY, userIds);
+            Map<String, List<String>> groupIds = readByUser(em, GROUP_MEMBERSHIPS_QUERY, userIds);
+            for (Object[] row : page) {
+              String userId = (String) row[0];
+              Supplier<BitSet> userRoles;
+              if (row[2] == null) {
+                userRoles =
+                    () ->
+                        graph.effectiveRoles(
+                            roleIds.getOrDefault(userId, List.of()),
+                            groupIds.getOrDefault(userId, List.of()).stream()
+                                .map(groupId -> session.groups().getGroupById(realm, groupId))
+                                .filter(Objects::nonNull),
+                            groupVersion);
+              } else { // its provider's mappers may map roles and groups of their own
+                UserModel user = session.users().getUserById(realm, userId);
+                if (user == null) { // removed from the provider since the page was read
+                  outcomes.add(null);
+                  continue;
+                }
+                userRoles = () -> graph.effectiveRoles(user, groupVersion);
+              }
+              outcomes.add(decide(settings, graph, client, impersonating, userRoles));
+            }
+          });
+    } catch (RuntimeException e) {
+      LOG.warnf(e, "batch of %d users not evaluated in realm %s", page.size(), realmId);
+      failed.addAndGet(page.size());
+      return "";
+    }
+
+    StringBuilder lines = new StringBuilder();
+    for (int i = 0; i < page.size(); i++) {
+      Outcome outcome = outcomes.get(i);
+      if (outcome == null) {
+        failed.incrementAndGet();
+        continue;
+      }
+      (outcome == Outcome.GRANTED ? granted : denied).incrementAndGet();
+      if (only == null || only == outcome) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("userId", page.get(i)[0]);
+        line.put("username", page.get(i)[1]);
+        line.put("outcome", outcome);
+        lines.append(JsonSerialization.writeValueAsString(line)).append('\n');
+      }
+    }
+    return lines.toString();
+  }
+
+  /**
+   * Decides as the authenticators do, given the targeted user's effective roles: those of the
+   * impersonator if {@code impersonating} and the requirement applies to the impersonator. Without
+   * impersonation, such a requirement is met unless enforced strictly, whatever the user's roles.
+   */
+  static Outcome decide(
+      RequireRoleSettings settings,
+      CompiledRoleGraph graph,
+      ClientModel client,
+      boolean impersonating,
+      Supplier<BitSet> userRoles) {
+    boolean result =
+        settings.isApplyToImpersonator() && !impersonating
+            ? !settings.isEnforceStrictly()
+            : TargetedUserModel.decide(
+                    graph,
+                    client,
+                    settings.getRequiredRoles(),
+                    settings.isApplyToImpersonator(),
+                    userRoles.get())
+                .isGranted();
+    return result != settings.isNegateResult() ? Outcome.GRANTED : Outcome.DENIED;
+  }
+
+  private static Map<String, List<String>> readByUser(
+      EntityManager em, String query, List<String> userIds) {
+    Map<String, List<String>> byUser = new HashMap<>();
+    em.createQuery(query, Object[].class)
+        .setParameter("userIds", userIds)
+        .getResultStream()
+        .forEach(
+            row ->
+                byUser
+                    .computeIfAbsent((String) row[0], k -> new ArrayList<>())
+                    .add((String) row[1]));
+    return byUser;
+  }
+
+  private static EntityManager getEntityManager(KeycloakSession session) {
+    return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+  }
+
+  private Map<String, Long> counts() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    counts.put("granted", granted.get());
+    counts.put("denied", denied.get());
+    counts.put("failed", failed.get());
+    return counts;
+  }
+}
@@ -0,0 +1,97 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.Value;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * The parsed configuration of a require-role authenticator as it applies to a client, with the
+ * required role name compiled into a {@link RoleExpression}.
+ *
+ * <p>Resolved settings are cached per node by authenticator config and client, stamped with the
+ * hash of the config and the realm's role graph version: editing the config, or creating, renaming
+ * or deleting a role (see {@code role-graph-provider}), changes the stamp and the settings are
+ * resolved anew. The cache is bounded, and entries expire, so that neither deleted configs and
+ * clients nor role changes that the {@code role-graph} event listener did not record linger.
+ */
+@JBossLog
+@Value
+class RequireRoleSettings {
+  private static final Cache<String, RequireRoleSettings> CACHE =
+      CacheBuilder.newBuilder()
+          .expireAfterWrite(RoleGraphs.DEFAULT_MAX_AGE, TimeUnit.MILLISECONDS)
+          .maximumSize(10_000L)
+          .build();
+
+  String stamp; // null if not cached
+
+  boolean applyToImpersonator;
+
+  boolean enforceStrictly;
+
+  boolean negateResult;
+
+  RoleExpression requiredRoles; // null if malformed or naming a role that does not exist
+
+  static RequireRoleSettings resolve(
+      RealmModel realm, ClientModel client, AuthenticatorConfigModel configModel) {
+    Map<String, String> config = configModel.getConfig();
+    String stamp = config.hashCode() + "/" + realm.getAttribute(RoleGraphs.VERSION_ATTRIBUTE_NAME);
+    String key = configModel.getId() + "/" + client.getId();
+    RequireRoleSettings settings = CACHE.getIfPresent(key);
+    if (settings == null || !settings.stamp.equals(stamp)) {
+      settings = parse(realm, client, config, stamp);
+      if (settings.requiredRoles != null) { // a missing role may yet be created
+        CACHE.put(key, settings);
+      }
+    }
+    return settings;
+  }
+
+  /** Parses the configuration without caching it, as for an ad-hoc evaluation. */
+  static RequireRoleSettings parse(
+      RealmModel realm, ClientModel client, Map<String, String> config) {
+    return parse(realm, client, config, null);
+  }
+
+  private static RequireRoleSettings parse(
+      RealmModel realm, ClientModel client, Map<String, String> config, String stamp) {
+    return new RequireRoleSettings(
+        stamp,
+        Boolean.parseBoolean(config.get(RequireRoleConstants.APPLY_TO_IMPERSONATOR)),
+        Boolean.parseBoolean(config.get(RequireRoleConstants.ENFORCE_STRICTLY)),
+        Boolean.parseBoolean(config.get(RequireRoleConstants.NEGATE_RESULT)),
+        compileRequiredRoles(realm, client, config.get(RequireRoleConstants.REQUIRED_ROLE_NAME)));
+  }
+
+  private static RoleExpression compileRequiredRoles(
+      RealmModel realm, ClientModel client, String requiredRoleName) {
+    if (requiredRoleName == null || requiredRoleName.isBlank()) {
+      return null;
+    }
+
+    try {
+      return RoleExpression.compile(
+          requiredRoleName,
+          roleName ->
+              KeycloakModelUtils.getRoleFromString(
+                  realm,
+                  roleName.startsWith(RequireRoleConstants.CLIENT_ID_PLACEHOLDER)
+                      ? roleName.replace(
+                          RequireRoleConstants.CLIENT_ID_PLACEHOLDER, client.getClientId())
+                      : roleName));
+    } catch (IllegalArgumentException e) {
+      LOG.warnf("required role name '%s' not usable: %s", requiredRoleName, e.getMessage());
+      return null;
+    }
+  }
+}
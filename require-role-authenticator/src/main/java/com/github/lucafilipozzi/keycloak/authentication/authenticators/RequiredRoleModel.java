@@ -3,44 +3,32 @@ package com.github.lucafilipozzi.keycloak.authentication.authenticators;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
-import lombok.experimental.Delegate;
-import org.keycloak.models.RoleModel;
-import org.keycloak.models.utils.KeycloakModelUtils;
 
 @RequiredArgsConstructor
-public class RequiredRoleModel implements RoleModel {
+public class RequiredRoleModel {
   @NonNull private RequireRoleContext context;
 
-  @Delegate @NonNull private RoleModel role;
+  @NonNull private RoleExpression expression;
 
   Boolean getApplyToImpersonator() {
     return context.getApplyToImpersonator();
   }
 
-  public static RequiredRoleModel resolveFromContext(RequireRoleContext context) {
-    String requiredRoleName = context.getRequiredRoleName();
-
-    if (requiredRoleName == null) {
-      return null;
-    }
-
-    requiredRoleName = requiredRoleName.trim();
+  RoleExpression getExpression() {
+    return expression;
+  }
 
-    if (requiredRoleName.isBlank()) {
-      return null;
-    }
+  public String getName() {
+    return expression.getSource();
+  }
 
-    if (requiredRoleName.startsWith(RequireRoleConstants.CLIENT_ID_PLACEHOLDER)) {
-      requiredRoleName =
-          requiredRoleName.replace(
-              RequireRoleConstants.CLIENT_ID_PLACEHOLDER, context.getClient().getClientId());
-    }
+  public static RequiredRoleModel resolveFromContext(RequireRoleContext context) {
+    RoleExpression expression = context.getRequiredRoles();
 
-    RoleModel role = KeycloakModelUtils.getRoleFromString(context.getRealm(), requiredRoleName);
-    if (role == null) {
+    if (expression == null) {
       return null;
     }
 
-    return new RequiredRoleModel(context, role);
+    return new RequiredRoleModel(context, expression);
   }
 }
@@ -0,0 +1,223 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Function;
+import lombok.Getter;
+import org.keycloak.models.RoleModel;
+
+/**
+ * A boolean expression over roles, such as {@code (a.admin | ${clientId}.ops) & !suspended},
+ * compiled once into postfix form over role ids and evaluated in a single pass over a set of
+ * effective roles.
+ *
+ * <p>Operators are {@code !} (not), {@code &} (and) and {@code |} (or), in decreasing order of
+ * precedence, with parentheses for grouping. Anything else is a role name, surrounding whitespace
+ * trimmed, as accepted by {@link
+ * org.keycloak.models.utils.KeycloakModelUtils#getRoleFromString}, in which a backslash escapes an
+ * operator or a backslash. A single role name is therefore also an expression; so is the name of
+ * an existing role taken verbatim, so that configurations predating expressions keep working.
+ */
+public final class RoleExpression {
+  private static final int NOT = -1;
+
+  private static final int AND = -2;
+
+  private static final int OR = -3;
+
+  @Getter private final String source;
+
+  @Getter private final List<String> roleIds; // of the operands, by operand index
+
+  private final boolean[] negated; // whether the operand is under an odd number of negations
+
+  private final int[] program; // operand index (non-negative) or operator (negative)
+
+  private RoleExpression(String source, List<String> roleIds, boolean[] negated, int[] program) {
+    this.source = source;
+    this.roleIds = List.copyOf(roleIds);
+    this.negated = negated;
+    this.program = program;
+  }
+
+  /**
+   * Compiles the expression, resolving each role name to its role.
+   *
+   * @throws IllegalArgumentException if the expression is malformed or names an unknown role
+   */
+  public static RoleExpression compile(String source, Function<String, RoleModel> resolver) {
+    RoleModel verbatim = resolver.apply(source.trim());
+    if (verbatim != null) {
+      return new RoleExpression(
+          source.trim(), List.of(verbatim.getId()), new boolean[1], new int[] {0});
+    }
+    Parser parser = new Parser(source, resolver);
+    parser.parseDisjunction();
+    parser.skipWhitespace();
+    if (parser.position < source.length()) {
+      throw new IllegalArgumentException(
+          "unexpected '" + source.charAt(parser.position) + "' at " + parser.position);
+    }
+    return new RoleExpression(
+        source.trim(),
+        parser.roleIds,
+        toArray(parser.negated),
+        parser.program.stream().mapToInt(Integer::intValue).toArray());
+  }
+
+  /** Returns the ids of the roles named other than under negation, those that grant access. */
+  public List<String> getGrantingRoleIds() {
+    List<String> grantingRoleIds = new ArrayList<>(roleIds.size());
+    for (int operand = 0; operand < roleIds.size(); operand++) {
+      if (!negated[operand]) {
+        grantingRoleIds.add(roleIds.get(operand));
+      }
+    }
+    return grantingRoleIds;
+  }
+
+  /** Returns whether the given roles, dense ids of the given graph, satisfy the expression. */
+  public boolean evaluate(CompiledRoleGraph graph, BitSet roles) {
+    return evaluate(graph, roles, roles);
+  }
+
+  /**
+   * As {@link #evaluate(CompiledRoleGraph, BitSet)}, but testing the roles named under negation
+   * against {@code negatedRoles}, so that a role that denies access is looked for among all of a
+   * user's roles while the roles that grant it are restricted to some of them.
+   */
+  public boolean evaluate(CompiledRoleGraph graph, BitSet roles, BitSet negatedRoles) {
+    boolean[] stack = new boolean[program.length];
+    int top = -1;
+    for (int instruction : program) {
+      switch (instruction) {
+        case NOT:
+          stack[top] = !stack[top];
+          break;
+        case AND:
+          top--;
+          stack[top] = stack[top] & stack[top + 1];
+          break;
+        case OR:
+          top--;
+          stack[top] = stack[top] | stack[top + 1];
+          break;
+        default:
+          int index = graph.indexOf(roleIds.get(instruction));
+          stack[++top] = index >= 0 && (negated[instruction] ? negatedRoles : roles).get(index);
+      }
+    }
+    return stack[0];
+  }
+
+  private static final class Parser {
+    private final String source;
+
+    private final Function<String, RoleModel> resolver;
+
+    private final List<String> roleIds = new ArrayList<>();
+
+    private final List<Boolean> negated = new ArrayList<>();
+
+    private final List<Integer> program = new ArrayList<>();
+
+    private int position;
+
+    private boolean negating;
+
+    private Parser(String source, Function<String, RoleModel> resolver) {
+      this.source = source;
+      this.resolver = resolver;
+    }
+
+    // disjunction := conjunction ('|' conjunction)*
+    private void parseDisjunction() {
+      parseConjunction();
+      while (accept('|')) {
+        parseConjunction();
+        program.add(OR);
+      }
+    }
+
+    // conjunction := negation ('&' negation)*
+    private void parseConjunction() {
+      parseNegation();
+      while (accept('&')) {
+        parseNegation();
+        program.add(AND);
+      }
+    }
+
+    // negation := '!' negation | '(' disjunction ')' | role name
+    private void parseNegation() {
+      if (accept('!')) {
+        negating = !negating;
+        parseNegation();
+        negating = !negating;
+        program.add(NOT);
+      } else if (accept('(')) {
+        parseDisjunction();
+        if (!accept(')')) {
+          throw new IllegalArgumentException("expected ')' at " + position);
+        }
+      } else {
+        parseRoleName();
+      }
+    }
+
+    private void parseRoleName() {
+      int start = position;
+      StringBuilder name = new StringBuilder();
+      while (position < source.length() && !isOperator(source.charAt(position))) {
+        char c = source.charAt(position++);
+        if (c == '\\'
+            && position < source.length()
+            && (isOperator(source.charAt(position)) || source.charAt(position) == '\\')) {
+          c = source.charAt(position++);
+        }
+        name.append(c);
+      }
+      String roleName = name.toString().trim();
+      if (roleName.isEmpty()) {
+        throw new IllegalArgumentException("expected role name at " + start);
+      }
+      RoleModel role = resolver.apply(roleName);
+      if (role == null) {
+        throw new IllegalArgumentException("unknown role '" + roleName + "'");
+      }
+      program.add(roleIds.size());
+      roleIds.add(role.getId());
+      negated.add(negating);
+    }
+
+    private boolean accept(char operator) {
+      skipWhitespace();
+      if (position < source.length() && source.charAt(position) == operator) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void skipWhitespace() {
+      while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+        position++;
+      }
+    }
+
+    private static boolean isOperator(char c) {
+      return c == '!' || c == '&' || c == '|' || c == '(' || c == ')';
+    }
+  }
+
+  private static boolean[] toArray(List<Boolean> values) {
+    boolean[] array = new boolean[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+}
@@ -1,22 +1,24 @@
 // © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
 package com.github.lucafilipozzi.keycloak.authentication.authenticators;
 
-import com.google.common.collect.Sets;
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleDecisionCache.Decision;
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import com.github.lucafilipozzi.keycloak.protocol.oidc.mappers.ImpersonatorRolesProtocolMapper;
+import com.github.lucafilipozzi.keycloak.services.managers.IdentityCookies;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.Delegate;
+import org.keycloak.models.ClientModel;
 import org.keycloak.models.ImpersonationSessionNote;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
-import org.keycloak.models.RoleModel;
 import org.keycloak.models.UserModel;
 import org.keycloak.models.UserSessionModel;
-import org.keycloak.models.utils.RoleUtils;
-import org.keycloak.services.managers.AuthenticationManager;
 import org.keycloak.services.managers.AuthenticationManager.AuthResult;
 
 @RequiredArgsConstructor
@@ -34,8 +36,7 @@ public class TargetedUserModel implements UserModel {
       KeycloakSession session = context.getSession();
       RealmModel realm = context.getRealm();
 
-      AuthResult authResult =
-          AuthenticationManager.authenticateIdentityCookie(session, realm, true);
+      AuthResult authResult = IdentityCookies.authenticate(session, realm);
       if (authResult == null) {
         return null;
       }
@@ -55,38 +56,79 @@ public class TargetedUserModel implements UserModel {
   }
 
   public boolean hasRequiredRole(final RequiredRoleModel requiredRole) {
-    if (requiredRole.getApplyToImpersonator().equals(Boolean.TRUE)) {
-      if (userSession == null) { // impersonation is not active
-        return !context.getEnforceStrictly();
-      }
+    if (requiredRole.getApplyToImpersonator().equals(Boolean.TRUE) && userSession == null) {
+      return !context.getEnforceStrictly(); // impersonation is not active
+    }
 
-      Set<RoleModel> clientRoles =
-          context
-              .getClient()
-              .getRolesStream()
-              .filter(x -> getDeepRoleCompositesStream(x).anyMatch(y -> y.equals(requiredRole)))
-              .collect(Collectors.toSet());
-      Set<RoleModel> userRoles = RoleUtils.getDeepUserRoleMappings(this);
-      Set<RoleModel> roleIntersection = Sets.intersection(clientRoles, userRoles);
-
-      if (!roleIntersection.isEmpty()) {
-        String roles =
-            roleIntersection.stream().map(RoleModel::getName).collect(Collectors.joining(","));
-        userSession.setNote("IMPERSONATOR_ROLES", roles);
-        return true; // targeted user (impersonator) has required role
-      }
-    } else {
-      return RoleUtils.hasRole(getRoleMappingsStream(), requiredRole) // cheap, try first
-          || RoleUtils.hasRole(
-              RoleUtils.getDeepUserRoleMappings(this), requiredRole); // expensive, try next
+    RequireRoleDecisionCache decisions = context.getDecisions();
+    String decisionKey = decisions == null ? null : context.getDecisionKey(getId());
+    Decision decision =
+        decisionKey == null
+            ? decide(requiredRole)
+            : decisions.get(decisionKey, () -> decide(requiredRole));
+
+    String roles = decision.getImpersonatorRoles();
+    if (roles != null
+        && !roles.equals(userSession.getNote("IMPERSONATOR_ROLES"))
+        && !isMappedByProtocolMapper(requiredRole.getExpression())) {
+      userSession.setNote("IMPERSONATOR_ROLES", roles);
     }
-    return false; // targeted user does not have required role
+    return decision.isGranted();
+  }
+
+  /**
+   * Returns whether the client's tokens carry the impersonator's roles through the protocol mapper
+   * instead, which it does only if configured with the one role that the expression grants by.
+   */
+  private boolean isMappedByProtocolMapper(RoleExpression expression) {
+    List<String> roleIds =
+        expression.getGrantingRoleIds().stream().distinct().collect(Collectors.toList());
+    return roleIds.size() == 1
+        && ImpersonatorRolesProtocolMapper.isUsedBy(
+            context.getRealm(), context.getAuthenticationSession(), roleIds.get(0));
+  }
+
+  private Decision decide(final RequiredRoleModel requiredRole) {
+    RoleExpression expression = requiredRole.getExpression();
+    CompiledRoleGraph graph = RoleGraphs.get(context.getRealm(), expression.getRoleIds());
+    return decide(
+        graph,
+        context.getClient(),
+        expression,
+        requiredRole.getApplyToImpersonator(),
+        graph.effectiveRoles(user, RoleGraphs.getGroupVersion(context.getRealm())));
   }
 
-  private static Stream<RoleModel> getDeepRoleCompositesStream(
-      final RoleModel role) { // helper function
-    return Stream.concat(
-        Stream.of(role),
-        role.getCompositesStream().flatMap(TargetedUserModel::getDeepRoleCompositesStream));
+  /**
+   * Decides whether a user with the given effective roles satisfies the expression, either in its
+   * own right or, if {@code applyToImpersonator}, as an impersonator accessing the client.
+   */
+  static Decision decide(
+      CompiledRoleGraph graph,
+      ClientModel client,
+      RoleExpression expression,
+      boolean applyToImpersonator,
+      BitSet userRoles) {
+    if (!applyToImpersonator) {
+      return new Decision(expression.evaluate(graph, userRoles), null);
+    }
+
+    // the impersonator's roles are those granted through its roles of the client, but a role named
+    // under negation denies access however the impersonator has it
+    BitSet clientRoles = graph.clientRoles(client);
+    clientRoles.and(userRoles);
+
+    if (!expression.evaluate(graph, graph.expand(clientRoles), userRoles)) {
+      return new Decision(false, null); // targeted user does not have required role
+    }
+
+    BitSet roleIntersection = new BitSet();
+    for (String roleId : expression.getGrantingRoleIds()) {
+      roleIntersection.or(graph.clientRolesGranting(client, graph.indexOf(roleId)));
+    }
+    roleIntersection.and(clientRoles);
+    String roles =
+        roleIntersection.isEmpty() ? null : String.join(",", graph.getNames(roleIntersection));
+    return new Decision(true, roles); // targeted user (impersonator) has required role
   }
 }
@@ -1,12 +1,15 @@
 // © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
 package com.github.lucafilipozzi.keycloak.authentication.authenticators.browser;
 
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleAudit;
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleAudit.Outcome;
 import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleContext;
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleDecisionCache;
 import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequiredRoleModel;
 import com.github.lucafilipozzi.keycloak.authentication.authenticators.TargetedUserModel;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
-import lombok.extern.jbosslog.JBossLog;
+import lombok.RequiredArgsConstructor;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.AuthenticationFlowError;
 import org.keycloak.authentication.Authenticator;
@@ -14,8 +17,12 @@ import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 
-@JBossLog
+@RequiredArgsConstructor
 public class RequireRoleAuthenticator implements Authenticator {
+  private final RequireRoleDecisionCache decisions; // null if disabled
+
+  private final RequireRoleAudit audit;
+
   @Override
   public void action(AuthenticationFlowContext context) {
     // intentionally empty
@@ -23,7 +30,7 @@ public class RequireRoleAuthenticator implements Authenticator {
 
   @Override
   public void authenticate(AuthenticationFlowContext ctx) {
-    final RequireRoleContext context = new RequireRoleContext(ctx);
+    final RequireRoleContext context = new RequireRoleContext(ctx, decisions);
     final RequiredRoleModel requiredRole = RequiredRoleModel.resolveFromContext(context);
     final TargetedUserModel targetedUser = TargetedUserModel.resolveFromContext(context);
 
@@ -34,28 +41,28 @@ public class RequireRoleAuthenticator implements Authenticator {
               .setError("Server Misconfiguration")
               .createErrorPage(Status.INTERNAL_SERVER_ERROR);
       context.failure(AuthenticationFlowError.INTERNAL_ERROR, response);
-      LOG.info("authenticator misconfigured");
+      audit.record(context, RequireRoleAuthenticatorFactory.PROVIDER_ID, Outcome.MISCONFIGURED);
       return;
     }
 
-    LOG.infof(
-        "checking whether user '%s' has role '%s'",
-        targetedUser.getUsername(), requiredRole.getName());
     boolean result = targetedUser.hasRequiredRole(requiredRole);
     if (context.getNegateResult().equals(Boolean.TRUE)) {
-      LOG.info("negating result");
       result = !result;
     }
+    audit.record(
+        context,
+        RequireRoleAuthenticatorFactory.PROVIDER_ID,
+        result ? Outcome.GRANTED : Outcome.DENIED,
+        targetedUser.getUsername(),
+        requiredRole.getName());
 
     if (result) {
       context.success();
-      LOG.info("access granted");
       return;
     }
 
     Response response = context.form().setError("Access Denied").createErrorPage(Status.FORBIDDEN);
     context.failure(AuthenticationFlowError.ACCESS_DENIED, response);
-    LOG.info("access denied");
   }
 
   @Override
@@ -1,8 +1,17 @@
 // © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
 package com.github.lucafilipozzi.keycloak.authentication.authenticators.browser;
 
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleAudit;
 import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleConstants;
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleDecisionCache;
+import com.google.auto.service.AutoService;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
 import java.util.List;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.Config.Scope;
 import org.keycloak.authentication.Authenticator;
 import org.keycloak.authentication.AuthenticatorFactory;
@@ -11,6 +20,7 @@ import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.provider.ProviderConfigProperty;
 
+@JBossLog
 @AutoService(AuthenticatorFactory.class)
 public class RequireRoleAuthenticatorFactory implements AuthenticatorFactory {
   public static final String PROVIDER_ID = "require-role";
@@ -19,17 +29,31 @@ public class RequireRoleAuthenticatorFactory implements AuthenticatorFactory {
     Requirement.REQUIRED, Requirement.ALTERNATIVE, Requirement.DISABLED
   };
 
-  private static final RequireRoleAuthenticator SINGLETON = new RequireRoleAuthenticator();
+  private static final String DECISION_CACHE_TTL = "PT10S";
+
+  private static final String AUDIT_GRANT_SAMPLE_RATE = "0.01";
+
+  private static final int AUDIT_QUEUE_CAPACITY = 10000;
+
+  private RequireRoleDecisionCache decisions; // null if disabled
+
+  private RequireRoleAudit audit;
+
+  private RequireRoleAuthenticator singleton;
 
   @Override
   public void close() {
-    // intentionally empty
+    audit.shutdown();
+    unregisterMBean("RequireRoleAudit");
+    if (decisions != null) {
+      unregisterMBean("RequireRoleDecisionCache");
+    }
   }
 
   @SuppressFBWarnings
   @Override
   public Authenticator create(KeycloakSession session) {
-    return SINGLETON;
+    return singleton;
   }
 
   @SuppressFBWarnings
@@ -38,6 +62,18 @@ public class RequireRoleAuthenticatorFactory implements AuthenticatorFactory {
     return RequireRoleConstants.CONFIG_PROPERTIES;
   }
 
+  /** Returns the decision audit, shared with the conditional authenticator. */
+  @SuppressFBWarnings
+  public RequireRoleAudit getAudit() {
+    return audit;
+  }
+
+  /** Returns the decision cache, shared with the conditional authenticator; null if disabled. */
+  @SuppressFBWarnings
+  public RequireRoleDecisionCache getDecisions() {
+    return decisions;
+  }
+
   @Override
   public String getDisplayType() {
     return "Require Role";
@@ -66,7 +102,18 @@ public class RequireRoleAuthenticatorFactory implements AuthenticatorFactory {
 
   @Override
   public void init(Scope scope) {
-    // intentionally empty
+    int decisionCacheSize = scope.getInt("decisionCacheSize", 0);
+    if (decisionCacheSize > 0) {
+      decisions =
+          new RequireRoleDecisionCache(
+              Duration.parse(scope.get("decisionCacheTtl", DECISION_CACHE_TTL)).toMillis(),
+              decisionCacheSize);
+    }
+    audit =
+        new RequireRoleAudit(
+            Double.parseDouble(scope.get("auditGrantSampleRate", AUDIT_GRANT_SAMPLE_RATE)),
+            scope.getInt("auditQueueCapacity", AUDIT_QUEUE_CAPACITY));
+    singleton = new RequireRoleAuthenticator(decisions, audit);
   }
 
   @Override
@@ -81,6 +128,30 @@ public class RequireRoleAuthenticatorFactory implements AuthenticatorFactory {
 
   @Override
   public void postInit(KeycloakSessionFactory factory) {
-    // intentionally empty
+    registerMBean(audit, "RequireRoleAudit");
+    if (decisions != null) {
+      registerMBean(decisions, "RequireRoleDecisionCache");
+    }
+  }
+
+  private static void registerMBean(Object mbean, String type) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, getObjectName(type));
+    } catch (JMException e) {
+      LOG.warnf(e, "%s metrics not registered", type);
+    }
+  }
+
+  private static void unregisterMBean(String type) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName(type));
+    } catch (JMException e) {
+      LOG.debugf(e, "%s metrics not unregistered", type);
+    }
+  }
+
+  private static ObjectName getObjectName(String type) throws JMException {
+    return new ObjectName(
+        "com.github.lucafilipozzi.keycloak:type=" + type + ",name=" + PROVIDER_ID);
   }
 }
@@ -1,6 +1,7 @@
 // © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
 package com.github.lucafilipozzi.keycloak.authentication.authenticators.conditional;
 
+import com.github.lucafilipozzi.keycloak.services.managers.IdentityCookies;
 import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.authenticators.conditional.ConditionalAuthenticator;
@@ -8,7 +9,6 @@ import org.keycloak.models.ImpersonationSessionNote;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
-import org.keycloak.services.managers.AuthenticationManager;
 import org.keycloak.services.managers.AuthenticationManager.AuthResult;
 
 @JBossLog
@@ -29,9 +29,7 @@ public class RequireImpersonationConditionalAuthenticator implements Conditional
   public boolean matchCondition(AuthenticationFlowContext context) {
     boolean negateResult =
         Boolean.parseBoolean(context.getAuthenticatorConfig().getConfig().get(NEGATE_RESULT));
-    AuthResult authResult =
-        AuthenticationManager.authenticateIdentityCookie(
-            context.getSession(), context.getRealm(), true);
+    AuthResult authResult = IdentityCookies.authenticate(context.getSession(), context.getRealm());
     if (authResult != null
         && authResult
             .getSession()
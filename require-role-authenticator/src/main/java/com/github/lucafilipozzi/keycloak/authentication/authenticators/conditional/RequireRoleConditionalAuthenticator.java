@@ -1,18 +1,25 @@
 // © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
 package com.github.lucafilipozzi.keycloak.authentication.authenticators.conditional;
 
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleAudit;
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleAudit.Outcome;
 import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleContext;
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleDecisionCache;
 import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequiredRoleModel;
 import com.github.lucafilipozzi.keycloak.authentication.authenticators.TargetedUserModel;
-import lombok.extern.jbosslog.JBossLog;
+import lombok.RequiredArgsConstructor;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.authenticators.conditional.ConditionalAuthenticator;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 
-@JBossLog
+@RequiredArgsConstructor
 public class RequireRoleConditionalAuthenticator implements ConditionalAuthenticator {
+  private final RequireRoleDecisionCache decisions; // null if disabled
+
+  private final RequireRoleAudit audit; // null until post-init
+
   @Override
   public void action(AuthenticationFlowContext context) {
     // intentionally empty
@@ -25,31 +32,37 @@ public class RequireRoleConditionalAuthenticator implements ConditionalAuthentic
 
   @Override
   public boolean matchCondition(AuthenticationFlowContext ctx) {
-    final RequireRoleContext context = new RequireRoleContext(ctx);
+    final RequireRoleContext context = new RequireRoleContext(ctx, decisions);
     final RequiredRoleModel requiredRole = RequiredRoleModel.resolveFromContext(context);
     final TargetedUserModel targetedUser = TargetedUserModel.resolveFromContext(context);
 
     if (requiredRole == null || targetedUser == null) {
-      LOG.info("conditional authenticator misconfigured");
+      record(context, Outcome.MISCONFIGURED, null, null);
       return false;
     }
 
-    LOG.infof(
-        "checking whether user '%s' has role '%s'",
-        targetedUser.getUsername(), requiredRole.getName());
     boolean result = targetedUser.hasRequiredRole(requiredRole);
     if (context.getNegateResult().equals(Boolean.TRUE)) {
-      LOG.info("negating result");
       result = !result;
     }
+    record(
+        context,
+        result ? Outcome.GRANTED : Outcome.DENIED,
+        targetedUser.getUsername(),
+        requiredRole.getName());
+    return result;
+  }
 
-    if (result) {
-      LOG.info("condition met");
-      return true;
+  private void record(
+      RequireRoleContext context, Outcome outcome, String username, String requiredRoles) {
+    if (audit != null) {
+      audit.record(
+          context,
+          RequireRoleConditionalAuthenticatorFactory.PROVIDER_ID,
+          outcome,
+          username,
+          requiredRoles);
     }
-
-    LOG.info("condition not met");
-    return false;
   }
 
   @Override
@@ -5,8 +5,13 @@ import static org.keycloak.models.AuthenticationExecutionModel.Requirement.DISAB
 import static org.keycloak.models.AuthenticationExecutionModel.Requirement.REQUIRED;
 
 import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleConstants;
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.browser.RequireRoleAuthenticatorFactory;
+import com.google.auto.service.AutoService;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.util.List;
 import org.keycloak.Config.Scope;
+import org.keycloak.authentication.Authenticator;
+import org.keycloak.authentication.AuthenticatorFactory;
 import org.keycloak.authentication.authenticators.conditional.ConditionalAuthenticatorFactory;
 import org.keycloak.models.AuthenticationExecutionModel.Requirement;
 import org.keycloak.models.KeycloakSessionFactory;
@@ -18,8 +23,8 @@ public class RequireRoleConditionalAuthenticatorFactory implements ConditionalAu
 
   private static final Requirement[] REQUIREMENT_CHOICES = {REQUIRED, DISABLED};
 
-  private static final RequireRoleConditionalAuthenticator SINGLETON =
-      new RequireRoleConditionalAuthenticator();
+  private RequireRoleConditionalAuthenticator singleton =
+      new RequireRoleConditionalAuthenticator(null, null);
 
   @Override
   public void close() {
@@ -56,7 +61,7 @@ public class RequireRoleConditionalAuthenticatorFactory implements ConditionalAu
   @SuppressFBWarnings
   @Override
   public RequireRoleConditionalAuthenticator getSingleton() {
-    return SINGLETON;
+    return singleton;
   }
 
   @Override
@@ -65,8 +70,17 @@ public class RequireRoleConditionalAuthenticatorFactory implements ConditionalAu
   }
 
   @Override
-  public void postInit(KeycloakSessionFactory actory) {
-    // intentionally empty
+  public void postInit(KeycloakSessionFactory factory) {
+    // share the decision cache and audit configured for the require-role authenticator
+    RequireRoleAuthenticatorFactory requireRole =
+        (RequireRoleAuthenticatorFactory)
+            factory.getProviderFactory(
+                Authenticator.class, RequireRoleAuthenticatorFactory.PROVIDER_ID);
+    if (requireRole != null) {
+      singleton =
+          new RequireRoleConditionalAuthenticator(
+              requireRole.getDecisions(), requireRole.getAudit());
+    }
   }
 
   @Override
@@ -0,0 +1,21 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import java.lang.reflect.Proxy;
+
+/** Builds fakes of model interfaces out of dynamic proxies, answering by method name. */
+final class Fakes {
+  interface Answers {
+    Object answer(String method, Object[] args);
+  }
+
+  private Fakes() {}
+
+  static <T> T fake(Class<T> type, Answers answers) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (self, method, args) -> answers.answer(method.getName(), args)));
+  }
+}
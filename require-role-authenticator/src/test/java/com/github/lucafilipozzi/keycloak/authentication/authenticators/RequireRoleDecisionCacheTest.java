@@ -0,0 +1,42 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleDecisionCache.Decision;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class RequireRoleDecisionCacheTest {
+  @Test
+  public void testDecidesOncePerKey() {
+    RequireRoleDecisionCache cache = new RequireRoleDecisionCache(60_000L, 10L);
+    AtomicInteger decided = new AtomicInteger();
+
+    for (int i = 0; i < 3; i++) {
+      Decision decision =
+          cache.get(
+              "realm/user/config/client/stamp/v1",
+              () -> new Decision(decided.incrementAndGet() > 0, "app.impersonator"));
+      assertThat(decision.isGranted(), is(true));
+      assertThat(decision.getImpersonatorRoles(), is("app.impersonator"));
+    }
+    cache.get("realm/user/config/client/stamp/v2", () -> new Decision(false, null));
+
+    assertThat(decided.get(), is(equalTo(1)));
+    assertThat(cache.getHitCount(), is(equalTo(2L)));
+    assertThat(cache.getMissCount(), is(equalTo(2L)));
+    assertThat(cache.getSize(), is(equalTo(2L)));
+  }
+
+  @Test
+  public void testExpires() throws InterruptedException {
+    RequireRoleDecisionCache cache = new RequireRoleDecisionCache(1L, 10L);
+    cache.get("key", () -> new Decision(true, null));
+    Thread.sleep(10L);
+
+    assertThat(cache.get("key", () -> new Decision(false, null)).isGranted(), is(false));
+  }
+}
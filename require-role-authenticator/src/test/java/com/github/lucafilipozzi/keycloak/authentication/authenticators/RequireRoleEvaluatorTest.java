@@ -0,0 +1,282 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import static com.github.lucafilipozzi.keycloak.authentication.authenticators.Fakes.fake;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleAudit.Outcome;
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import org.junit.Test;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+
+public class RequireRoleEvaluatorTest {
+  private static final String REALM_ID = "evaluation";
+
+  private final Map<String, RoleModel> roles = new LinkedHashMap<>();
+
+  private final RealmModel realm =
+      fake(
+          RealmModel.class,
+          (method, args) -> {
+            switch (method) {
+              case "getId":
+                return REALM_ID;
+              case "getAttribute":
+                return null;
+              case "getEventsListenersStream":
+                return Stream.empty();
+              case "getRolesStream":
+                return roles.values().stream();
+              case "getClientsStream":
+                return Stream.empty();
+              default:
+                throw new UnsupportedOperationException(method);
+            }
+          });
+
+  // id, username and federation link of each user, in id order
+  private final List<Object[]> users =
+      List.of(
+          new Object[] {"u1", "alice", null},
+          new Object[] {"u2", "bob", null},
+          new Object[] {"u3", "carol", "ldap"},
+          new Object[] {"u4", "dave", "ldap"});
+
+  public RequireRoleEvaluatorTest() {
+    for (String name : new String[] {"admin", "suspended"}) {
+      roles.put(
+          name,
+          fake(
+              RoleModel.class,
+              (method, args) -> {
+                switch (method) {
+                  case "getId":
+                  case "getName":
+                    return name;
+                  case "getContainerId":
+                    return REALM_ID;
+                  case "getCompositesStream":
+                    return Stream.empty();
+                  default:
+                    throw new UnsupportedOperationException(method);
+                }
+              }));
+    }
+  }
+
+  @Test
+  public void testEveryUserIsEvaluatedIncludingFederatedMappings() throws Exception {
+    RequireRoleSettings settings =
+        new RequireRoleSettings(
+            null, false, false, false, RoleExpression.compile("admin", roles::get));
+    ExecutorService workers = Executors.newFixedThreadPool(2);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      new RequireRoleEvaluator(
+              factory(), REALM_ID, null, settings, RoleGraphs.get(realm), true, null, 2, 2, workers)
+          .evaluate(out);
+    } finally {
+      workers.shutdown();
+    }
+
+    List<String> lines = Arrays.asList(out.toString(StandardCharsets.UTF_8).split("\n"));
+    assertThat(
+        lines.subList(0, lines.size() - 1),
+        containsInAnyOrder(
+            "{\"userId\":\"u1\",\"username\":\"alice\",\"outcome\":\"GRANTED\"}",
+            "{\"userId\":\"u2\",\"username\":\"bob\",\"outcome\":\"DENIED\"}",
+            "{\"userId\":\"u3\",\"username\":\"carol\",\"outcome\":\"GRANTED\"}"));
+    assertThat(
+        lines.get(lines.size() - 1), is("{\"counts\":{\"granted\":2,\"denied\":1,\"failed\":1}}"));
+  }
+
+  @Test
+  public void testEnforceStrictlyGovernsSessionsWithoutImpersonation() {
+    RoleExpression expression = RoleExpression.compile("admin", roles::get);
+    CompiledRoleGraph graph = RoleGraphs.get(realm);
+    BitSet noRoles = new BitSet();
+
+    assertThat(decide(graph, expression, true, false, false), is(Outcome.GRANTED));
+    assertThat(decide(graph, expression, true, true, false), is(Outcome.DENIED));
+    assertThat(decide(graph, expression, true, true, true), is(Outcome.GRANTED));
+    assertThat(
+        RequireRoleEvaluator.decide(
+            new RequireRoleSettings(null, false, true, false, expression),
+            graph,
+            null,
+            false,
+            () -> noRoles),
+        is(Outcome.DENIED)); // a requirement of the user in its own right is always in play
+  }
+
+  private static Outcome decide(
+      CompiledRoleGraph graph,
+      RoleExpression expression,
+      boolean applyToImpersonator,
+      boolean enforceStrictly,
+      boolean negateResult) {
+    return RequireRoleEvaluator.decide(
+        new RequireRoleSettings(
+            null, applyToImpersonator, enforceStrictly, negateResult, expression),
+        graph,
+        null,
+        false,
+        () -> {
+          throw new AssertionError("roles read without impersonation");
+        });
+  }
+
+  /** Creates sessions over the users above: alice holds admin, carol through her provider. */
+  private KeycloakSessionFactory factory() {
+    Map<String, List<Object[]>> roleMappings = Map.of("u1", List.<Object[]>of(row("u1", "admin")));
+    UserModel carol =
+        fake(
+            UserModel.class,
+            (method, args) -> {
+              switch (method) {
+                case "getRoleMappingsStream":
+                  return Stream.of(roles.get("admin"));
+                case "getGroupsStream":
+                  return Stream.empty();
+                default:
+                  throw new UnsupportedOperationException(method);
+              }
+            });
+    EntityManager em =
+        fake(
+            EntityManager.class,
+            (method, args) -> {
+              if (!method.equals("createQuery")) {
+                throw new UnsupportedOperationException(method);
+              }
+              return query(
+                  parameters -> {
+                    if (((String) args[0]).contains("UserEntity u")) {
+                      return users.stream()
+                          .filter(user -> ((String) user[0]).compareTo(parameters.after) > 0)
+                          .limit(parameters.maxResults);
+                    }
+                    if (((String) args[0]).contains("UserRoleMappingEntity")) {
+                      return parameters.userIds.stream()
+                          .flatMap(userId -> roleMappings.getOrDefault(userId, List.of()).stream());
+                    }
+                    return Stream.empty();
+                  });
+            });
+    JpaConnectionProvider jpa =
+        fake(
+            JpaConnectionProvider.class,
+            (method, args) -> {
+              if (!method.equals("getEntityManager")) {
+                throw new UnsupportedOperationException(method);
+              }
+              return em;
+            });
+    RealmProvider realms = fake(RealmProvider.class, (method, args) -> realm);
+    UserProvider userProvider =
+        fake(UserProvider.class, (method, args) -> "u3".equals(args[1]) ? carol : null);
+    return fake(
+        KeycloakSessionFactory.class,
+        (factoryMethod, factoryArgs) -> {
+          KeycloakTransactionManager transaction =
+              fake(
+                  KeycloakTransactionManager.class,
+                  (method, args) -> {
+                    switch (method) {
+                      case "isActive":
+                        return true;
+                      case "getRollbackOnly":
+                        return false;
+                      default: // begin, commit and rollback
+                        return null;
+                    }
+                  });
+          return fake(
+              KeycloakSession.class,
+              (method, args) -> {
+                switch (method) {
+                  case "getTransactionManager":
+                    return transaction;
+                  case "getProvider":
+                    return jpa;
+                  case "realms":
+                    return realms;
+                  case "users":
+                    return userProvider;
+                  case "close":
+                    return null;
+                  default:
+                    throw new UnsupportedOperationException(method);
+                }
+              });
+        });
+  }
+
+  private static Object[] row(Object... columns) {
+    return columns;
+  }
+
+  private static final class Parameters {
+    private String after = "";
+
+    private List<String> userIds = List.of();
+
+    private int maxResults = Integer.MAX_VALUE;
+  }
+
+  private interface Results {
+    Stream<Object[]> get(Parameters parameters);
+  }
+
+  /** Creates a query whose results are computed from the parameters set on it. */
+  @SuppressWarnings("unchecked")
+  private static TypedQuery<Object[]> query(Results results) {
+    Parameters parameters = new Parameters();
+    return (TypedQuery<Object[]>)
+        Proxy.newProxyInstance(
+            TypedQuery.class.getClassLoader(),
+            new Class<?>[] {TypedQuery.class},
+            (self, method, args) -> {
+              switch (method.getName()) {
+                case "setParameter":
+                  if (args[0].equals("after")) {
+                    parameters.after = (String) args[1];
+                  } else if (args[0].equals("userIds")) {
+                    parameters.userIds = (List<String>) args[1];
+                  }
+                  return self;
+                case "setMaxResults":
+                  parameters.maxResults = (Integer) args[0];
+                  return self;
+                case "getResultStream":
+                  return results.get(parameters);
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+}
@@ -0,0 +1,146 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import static com.github.lucafilipozzi.keycloak.authentication.authenticators.Fakes.fake;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+
+public class RoleExpressionTest {
+  private final Map<String, RoleModel> roles = new LinkedHashMap<>();
+
+  private final RealmModel realm =
+      fake(
+          RealmModel.class,
+          (method, args) -> {
+            switch (method) {
+              case "getId":
+                return "realm";
+              case "getAttribute":
+                return null;
+              case "getRolesStream":
+                return roles.values().stream();
+              case "getClientsStream":
+                return Stream.empty();
+              default:
+                throw new UnsupportedOperationException(method);
+            }
+          });
+
+  public RoleExpressionTest() {
+    for (String name : new String[] {"admin", "ops", "suspended", "a&b"}) {
+      roles.put(
+          name,
+          fake(
+              RoleModel.class,
+              (method, args) -> {
+                switch (method) {
+                  case "getId":
+                  case "getName":
+                    return name;
+                  case "getContainerId":
+                    return "realm";
+                  case "getCompositesStream":
+                    return Stream.empty();
+                  default:
+                    throw new UnsupportedOperationException(method);
+                }
+              }));
+    }
+  }
+
+  @Test
+  public void testPrecedenceAndGrouping() {
+    RoleExpression expression = RoleExpression.compile(" (admin | ops) & !suspended ", roles::get);
+
+    assertThat(expression.getSource(), is("(admin | ops) & !suspended"));
+    assertThat(expression.getRoleIds(), contains("admin", "ops", "suspended"));
+    assertThat(evaluate(expression, "admin"), is(true));
+    assertThat(evaluate(expression, "ops"), is(true));
+    assertThat(evaluate(expression, "ops", "suspended"), is(false));
+    assertThat(evaluate(expression), is(false));
+
+    RoleExpression ungrouped = RoleExpression.compile("admin | ops & !suspended", roles::get);
+    assertThat(evaluate(ungrouped, "admin", "suspended"), is(true));
+    assertThat(evaluate(ungrouped, "ops", "suspended"), is(false));
+  }
+
+  @Test
+  public void testSingleRoleName() {
+    RoleExpression expression = RoleExpression.compile("admin", roles::get);
+
+    assertThat(evaluate(expression, "admin"), is(true));
+    assertThat(evaluate(expression, "ops"), is(false));
+  }
+
+  @Test
+  public void testEscapedOperator() {
+    RoleExpression expression = RoleExpression.compile("a\\&b | ops", roles::get);
+
+    assertThat(expression.getRoleIds(), contains("a&b", "ops"));
+    assertThat(evaluate(expression, "a&b"), is(true));
+  }
+
+  @Test
+  public void testVerbatimRoleName() {
+    RoleExpression expression = RoleExpression.compile(" a&b ", roles::get);
+
+    assertThat(expression.getRoleIds(), contains("a&b"));
+    assertThat(evaluate(expression, "a&b"), is(true));
+  }
+
+  @Test
+  public void testNegatedOperandsAreTestedSeparately() {
+    RoleExpression expression = RoleExpression.compile("(admin | ops) & !suspended", roles::get);
+    CompiledRoleGraph graph = RoleGraphs.get(realm);
+    BitSet granting = roleSet(graph, "admin");
+
+    assertThat(expression.getGrantingRoleIds(), contains("admin", "ops"));
+    assertThat(expression.evaluate(graph, granting, roleSet(graph, "admin")), is(true));
+    assertThat(
+        expression.evaluate(graph, granting, roleSet(graph, "admin", "suspended")), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownRole() {
+    RoleExpression.compile("admin | nobody", roles::get);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnbalancedParentheses() {
+    RoleExpression.compile("(admin | ops", roles::get);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingOperand() {
+    RoleExpression.compile("admin & ", roles::get);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTrailingInput() {
+    RoleExpression.compile("admin ) ops", roles::get);
+  }
+
+  private boolean evaluate(RoleExpression expression, String... held) {
+    CompiledRoleGraph graph = RoleGraphs.get(realm);
+    return expression.evaluate(graph, roleSet(graph, held));
+  }
+
+  private static BitSet roleSet(CompiledRoleGraph graph, String... held) {
+    BitSet roleSet = new BitSet();
+    for (String roleName : held) {
+      roleSet.set(graph.indexOf(roleName));
+    }
+    return roleSet;
+  }
+}
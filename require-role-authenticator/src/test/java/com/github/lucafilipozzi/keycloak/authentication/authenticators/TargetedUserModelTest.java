@@ -0,0 +1,216 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import static com.github.lucafilipozzi.keycloak.authentication.authenticators.Fakes.fake;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import com.github.lucafilipozzi.keycloak.authentication.authenticators.RequireRoleDecisionCache.Decision;
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+public class TargetedUserModelTest {
+  private static final String REALM_ID = "impersonation";
+
+  private final Map<String, RoleModel> roles = new LinkedHashMap<>();
+
+  private final ClientModel client =
+      fake(
+          ClientModel.class,
+          (method, args) -> {
+            switch (method) {
+              case "getId":
+                return "app";
+              case "getRolesStream":
+                return Stream.of(roles.get("app.impersonator"));
+              default:
+                throw new UnsupportedOperationException(method);
+            }
+          });
+
+  private boolean tracked;
+
+  private final RealmModel realm =
+      fake(
+          RealmModel.class,
+          (method, args) -> {
+            switch (method) {
+              case "getId":
+                return REALM_ID;
+              case "getAttribute":
+                return null;
+              case "getRolesStream":
+                return Stream.of(roles.get("admin"), roles.get("suspended"));
+              case "getClientsStream":
+                return Stream.of(client);
+              case "getRole":
+                return roles.get((String) args[0]);
+              case "getEventsListenersStream":
+                return tracked ? Stream.of("role-graph") : Stream.empty();
+              default:
+                throw new UnsupportedOperationException(method);
+            }
+          });
+
+  public TargetedUserModelTest() {
+    role("admin", REALM_ID);
+    role("suspended", REALM_ID);
+    role("app.impersonator", "app", roles.get("admin"));
+  }
+
+  @Test
+  public void testNegatedRoleIsLookedForAmongAllOfTheImpersonatorsRoles() {
+    RoleExpression expression = RoleExpression.compile("admin & !suspended", roles::get);
+    CompiledRoleGraph graph = RoleGraphs.get(realm);
+
+    Decision granted =
+        TargetedUserModel.decide(
+            graph, client, expression, true, roleSet(graph, "app.impersonator", "admin"));
+    assertThat(granted.isGranted(), is(true));
+    assertThat(granted.getImpersonatorRoles(), is("app.impersonator"));
+
+    Decision denied =
+        TargetedUserModel.decide(
+            graph,
+            client,
+            expression,
+            true,
+            roleSet(graph, "app.impersonator", "admin", "suspended"));
+    assertThat(denied.isGranted(), is(false));
+    assertThat(denied.getImpersonatorRoles(), is(nullValue()));
+  }
+
+  @Test
+  public void testGrantingRolesAreRestrictedToTheClientsRoles() {
+    RoleExpression expression = RoleExpression.compile("admin", roles::get);
+    CompiledRoleGraph graph = RoleGraphs.get(realm);
+
+    assertThat(
+        TargetedUserModel.decide(graph, client, expression, true, roleSet(graph, "admin"))
+            .isGranted(),
+        is(false));
+    assertThat(
+        TargetedUserModel.decide(graph, client, expression, false, roleSet(graph, "admin"))
+            .isGranted(),
+        is(true));
+  }
+
+  @Test
+  public void testDecisionsAreCachedOnlyWhileRoleMappingsAreTracked() {
+    RequireRoleDecisionCache decisions = new RequireRoleDecisionCache(60_000L, 10L);
+    RequireRoleContext context = new RequireRoleContext(flowContext("admin"), decisions);
+    RequiredRoleModel requiredRole = RequiredRoleModel.resolveFromContext(context);
+    int[] reads = new int[1];
+    UserModel user =
+        fake(
+            UserModel.class,
+            (method, args) -> {
+              switch (method) {
+                case "getId":
+                  return "alice";
+                case "getRoleMappingsStream":
+                  reads[0]++;
+                  return Stream.of(roles.get("admin"));
+                case "getGroupsStream":
+                  return Stream.empty();
+                default:
+                  throw new UnsupportedOperationException(method);
+              }
+            });
+    TargetedUserModel targetedUser = new TargetedUserModel(context, user, null);
+
+    assertThat(context.getDecisionKey("alice"), is(nullValue()));
+    assertThat(targetedUser.hasRequiredRole(requiredRole), is(true));
+    assertThat(targetedUser.hasRequiredRole(requiredRole), is(true));
+    assertThat(reads[0], is(equalTo(2))); // not tracked: decided afresh every time
+    assertThat(decisions.getSize(), is(equalTo(0L)));
+
+    tracked = true;
+    String decisionKey = context.getDecisionKey("alice");
+    assertThat(decisionKey, is(notNullValue()));
+    assertThat(targetedUser.hasRequiredRole(requiredRole), is(true));
+    assertThat(targetedUser.hasRequiredRole(requiredRole), is(true));
+    assertThat(reads[0], is(equalTo(3)));
+
+    RoleGraphs.invalidateMappings(fake(KeycloakSession.class, (method, args) -> null), realm);
+    assertThat(context.getDecisionKey("alice"), is(not(equalTo(decisionKey))));
+    assertThat(targetedUser.hasRequiredRole(requiredRole), is(true));
+    assertThat(reads[0], is(equalTo(4))); // the mapping version changed
+  }
+
+  /** Creates a flow context requiring the role of the user, for the client, of this realm. */
+  private AuthenticationFlowContext flowContext(String requiredRoleName) {
+    AuthenticatorConfigModel config = new AuthenticatorConfigModel();
+    config.setId("require-" + requiredRoleName);
+    config.setConfig(Map.of(RequireRoleConstants.REQUIRED_ROLE_NAME, requiredRoleName));
+    AuthenticationSessionModel authSession =
+        fake(
+            AuthenticationSessionModel.class,
+            (method, args) -> {
+              if (!method.equals("getClient")) {
+                throw new UnsupportedOperationException(method);
+              }
+              return client;
+            });
+    return fake(
+        AuthenticationFlowContext.class,
+        (method, args) -> {
+          switch (method) {
+            case "getRealm":
+              return realm;
+            case "getAuthenticatorConfig":
+              return config;
+            case "getAuthenticationSession":
+              return authSession;
+            default:
+              throw new UnsupportedOperationException(method);
+          }
+        });
+  }
+
+  private void role(String name, String containerId, RoleModel... composites) {
+    roles.put(
+        name,
+        fake(
+            RoleModel.class,
+            (method, args) -> {
+              switch (method) {
+                case "getId":
+                case "getName":
+                  return name;
+                case "getContainerId":
+                  return containerId;
+                case "getCompositesStream":
+                  return List.of(composites).stream();
+                default:
+                  throw new UnsupportedOperationException(method);
+              }
+            }));
+  }
+
+  private static BitSet roleSet(CompiledRoleGraph graph, String... held) {
+    BitSet roleSet = new BitSet();
+    for (String roleName : held) {
+      roleSet.set(graph.indexOf(roleName));
+    }
+    return roleSet;
+  }
+}
@@ -0,0 +1,265 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.Getter;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * The roles of a realm compiled into dense integer ids, with the transitive closure of each role
+ * over its composites held as a bitmap. Role sets are then bitmaps too, so that checking whether a
+ * user has a role, however deeply composited, is a bit test rather than a walk of the role tree.
+ *
+ * <p>A compiled graph is immutable and independent of any session; it is replaced, rather than
+ * updated, when the roles of the realm change (see {@link RoleGraphs}).
+ */
+public final class CompiledRoleGraph {
+  @Getter private final String version;
+
+  @Getter private final long compiledAt = Time.currentTimeMillis();
+
+  private final Map<String, Integer> indices; // by role id
+
+  private final String[] names;
+
+  private final String[] containerIds; // realm id for realm roles, client id for client roles
+
+  private final BitSet[] closures; // each including the role itself
+
+  private final Map<String, Map<Integer, BitSet>> grantingByClient = new ConcurrentHashMap<>();
+
+  private final Map<String, BitSet> rolesByClient = new ConcurrentHashMap<>();
+
+  private final AtomicReference<Versioned<BitSet>> groupRoles = // by group id
+      new AtomicReference<>(new Versioned<>(""));
+
+  private final AtomicReference<Versioned<Object>> clientMemos = // by client id and name
+      new AtomicReference<>(new Versioned<>(""));
+
+  private CompiledRoleGraph(String version, List<RoleModel> roles) {
+    this.version = version;
+    this.indices = new HashMap<>(roles.size() * 2);
+    this.names = new String[roles.size()];
+    this.containerIds = new String[roles.size()];
+    this.closures = new BitSet[roles.size()];
+    for (int i = 0; i < roles.size(); i++) {
+      RoleModel role = roles.get(i);
+      indices.put(role.getId(), i);
+      names[i] = role.getName();
+      containerIds[i] = role.getContainerId();
+    }
+  }
+
+  static CompiledRoleGraph compile(RealmModel realm, String version) {
+    List<RoleModel> roles =
+        Stream.concat(
+                realm.getRolesStream(),
+                realm.getClientsStream().flatMap(ClientModel::getRolesStream))
+            .collect(Collectors.toList());
+    CompiledRoleGraph graph = new CompiledRoleGraph(version, roles);
+
+    int[][] composites = new int[roles.size()][];
+    for (int i = 0; i < roles.size(); i++) {
+      composites[i] =
+          roles.get(i).getCompositesStream().mapToInt(graph::indexOf).filter(j -> j >= 0).toArray();
+    }
+    for (int i = 0; i < roles.size(); i++) {
+      graph.closures[i] = RoleTraversal.closure(i, composites, graph.closures);
+    }
+    return graph;
+  }
+
+  /** Returns the dense id of the role, or -1 if it was created since this graph was compiled. */
+  public int indexOf(RoleModel role) {
+    return indexOf(role.getId());
+  }
+
+  /** Returns the dense id of the role, or -1 if it was created since this graph was compiled. */
+  public int indexOf(String roleId) {
+    return indices.getOrDefault(roleId, -1);
+  }
+
+  public String getName(int index) {
+    return names[index];
+  }
+
+  /** Returns the roles that the given roles grant, however deeply composited. */
+  public BitSet expand(Stream<RoleModel> roles) {
+    BitSet expanded = new BitSet(closures.length);
+    roles
+        .mapToInt(this::indexOf)
+        .filter(index -> index >= 0)
+        .forEach(index -> expanded.or(closures[index]));
+    return expanded;
+  }
+
+  /** Returns the roles that the given roles grant, however deeply composited. */
+  public BitSet expand(BitSet roles) {
+    BitSet expanded = new BitSet(closures.length);
+    roles.stream().forEach(index -> expanded.or(closures[index]));
+    return expanded;
+  }
+
+  /**
+   * Returns every role the user has: its own role mappings and those of its groups and their
+   * ancestors, expanded through composites.
+   */
+  public BitSet effectiveRoles(UserModel user) {
+    return effectiveRoles(user, null);
+  }
+
+  /**
+   * As {@link #effectiveRoles(UserModel)}, reusing the roles that each group inherits from its
+   * ancestors for as long as the realm's group version (see {@link RoleGraphs#getGroupVersion}) is
+   * the given one; a null version reuses nothing.
+   */
+  public BitSet effectiveRoles(UserModel user, String groupVersion) {
+    BitSet effective = expand(user.getRoleMappingsStream());
+    addGroupRoles(effective, user.getGroupsStream(), groupVersion);
+    return effective;
+  }
+
+  /**
+   * As {@link #effectiveRoles(UserModel, String)}, for the ids of the roles mapped to a user and
+   * the groups of which it is a member, as read in bulk rather than through the user model.
+   */
+  public BitSet effectiveRoles(
+      Collection<String> roleIds, Stream<GroupModel> groups, String groupVersion) {
+    BitSet effective = new BitSet(closures.length);
+    roleIds.stream()
+        .mapToInt(this::indexOf)
+        .filter(index -> index >= 0)
+        .forEach(index -> effective.or(closures[index]));
+    addGroupRoles(effective, groups, groupVersion);
+    return effective;
+  }
+
+  /**
+   * Returns the roles of the client that grant the given role, including the role itself. The
+   * answer is memoised per client and role for the life of the graph; callers receive a copy that
+   * they may modify.
+   */
+  public BitSet clientRolesGranting(ClientModel client, RoleModel role) {
+    return clientRolesGranting(client, indexOf(role));
+  }
+
+  /** As {@link #clientRolesGranting(ClientModel, RoleModel)}, for the role of the given id. */
+  public BitSet clientRolesGranting(ClientModel client, int index) {
+    if (index < 0) {
+      return new BitSet(closures.length);
+    }
+    BitSet granting =
+        grantingByClient
+            .computeIfAbsent(client.getId(), clientId -> new ConcurrentHashMap<>())
+            .computeIfAbsent(index, i -> computeClientRolesGranting(client.getId(), i));
+    return (BitSet) granting.clone();
+  }
+
+  /** Returns the roles of the client; callers receive a copy that they may modify. */
+  public BitSet clientRoles(ClientModel client) {
+    BitSet roles =
+        rolesByClient.computeIfAbsent(
+            client.getId(),
+            clientId -> {
+              BitSet clientRoles = new BitSet(closures.length);
+              for (int i = 0; i < closures.length; i++) {
+                if (clientId.equals(containerIds[i])) {
+                  clientRoles.set(i);
+                }
+              }
+              return clientRoles;
+            });
+    return (BitSet) roles.clone();
+  }
+
+  private BitSet computeClientRolesGranting(String clientId, int index) {
+    BitSet granting = new BitSet(closures.length);
+    for (int i = 0; i < closures.length; i++) {
+      if (clientId.equals(containerIds[i]) && closures[i].get(index)) {
+        granting.set(i);
+      }
+    }
+    return granting;
+  }
+
+  /**
+   * Returns what {@code compute} derives from the client under the given name, memoised for the
+   * given version of the realm's clients (see {@link RoleGraphs#getClientVersion}) and the life of
+   * the graph; computed afresh if the version is null.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T memoise(
+      ClientModel client, String name, String clientVersion, Function<ClientModel, T> compute) {
+    Map<String, Object> memos = current(clientMemos, clientVersion);
+    if (memos == null) {
+      return compute.apply(client);
+    }
+    return (T) memos.computeIfAbsent(client.getId() + "/" + name, key -> compute.apply(client));
+  }
+
+  public List<String> getNames(BitSet roles) {
+    List<String> roleNames = new ArrayList<>(roles.cardinality());
+    roles.stream().forEach(index -> roleNames.add(names[index]));
+    return roleNames;
+  }
+
+  private void addGroupRoles(BitSet effective, Stream<GroupModel> groups, String groupVersion) {
+    Map<String, BitSet> inherited = current(groupRoles, groupVersion);
+    groups.forEach(group -> effective.or(inheritedRoles(group, inherited)));
+  }
+
+  /** Returns the roles of the group and its ancestors, memoising them (and theirs) if possible. */
+  private BitSet inheritedRoles(GroupModel group, Map<String, BitSet> inherited) {
+    BitSet roles = inherited == null ? null : inherited.get(group.getId());
+    if (roles == null) {
+      roles = expand(group.getRoleMappingsStream());
+      GroupModel parent = group.getParent();
+      if (parent != null) {
+        roles.or(inheritedRoles(parent, inherited));
+      }
+      if (inherited != null) {
+        inherited.put(group.getId(), roles);
+      }
+    }
+    return roles;
+  }
+
+  /** Returns the values memoised for the version, or null if they are not to be memoised. */
+  private static <V> Map<String, V> current(AtomicReference<Versioned<V>> memos, String version) {
+    if (version == null) {
+      return null;
+    }
+    Versioned<V> current = memos.get();
+    if (!current.version.equals(version)) {
+      Versioned<V> replacement = new Versioned<>(version);
+      current = memos.compareAndSet(current, replacement) ? replacement : memos.get();
+    }
+    // a caller that saw another version concurrently gets nothing rather than mixing the two
+    return current.version.equals(version) ? current.values : null;
+  }
+
+  private static final class Versioned<V> {
+    private final String version;
+
+    private final Map<String, V> values = new ConcurrentHashMap<>();
+
+    private Versioned(String version) {
+      this.version = version;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.EnumSet;
+import java.util.Set;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Invalidates the compiled role graph of a realm when its roles or their composites change or a
+ * client is deleted, the realm's client version when its clients, client scopes or protocol mappers
+ * change, the realm's group version when groups or their role mappings change, and the realm's role
+ * mapping version when role mappings, group memberships or groups change.
+ */
+@JBossLog
+@RequiredArgsConstructor
+public class RoleGraphEventListenerProvider implements EventListenerProvider {
+  private static final Set<ResourceType> ROLE_RESOURCE_TYPES =
+      EnumSet.of(ResourceType.REALM_ROLE, ResourceType.CLIENT_ROLE);
+
+  // of which what is derived from clients is memoised; a client or client scope is only of interest
+  // once it exists
+  private static final Set<ResourceType> CLIENT_RESOURCE_TYPES =
+      EnumSet.of(ResourceType.CLIENT, ResourceType.CLIENT_SCOPE);
+
+  private static final Set<ResourceType> CLIENT_MAPPING_RESOURCE_TYPES =
+      EnumSet.of(ResourceType.CLIENT_SCOPE_CLIENT_MAPPING, ResourceType.PROTOCOL_MAPPER);
+
+  private static final Set<ResourceType> MAPPING_RESOURCE_TYPES =
+      EnumSet.of(
+          ResourceType.REALM_ROLE_MAPPING,
+          ResourceType.CLIENT_ROLE_MAPPING,
+          ResourceType.GROUP,
+          ResourceType.GROUP_MEMBERSHIP);
+
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  private final KeycloakSession session;
+
+  @Override
+  public void onEvent(Event event) {
+    // intentionally empty
+  }
+
+  @Override
+  public void onEvent(AdminEvent event, boolean includeRepresentation) {
+    if (event.getOperationType() == OperationType.ACTION) {
+      return;
+    }
+    ResourceType resourceType = event.getResourceType();
+    boolean graphChanged =
+        ROLE_RESOURCE_TYPES.contains(resourceType)
+            || (resourceType == ResourceType.CLIENT
+                && event.getOperationType() == OperationType.DELETE);
+    boolean clientsChanged =
+        CLIENT_MAPPING_RESOURCE_TYPES.contains(resourceType)
+            || (CLIENT_RESOURCE_TYPES.contains(resourceType)
+                && event.getOperationType() != OperationType.CREATE);
+    boolean mappingsChanged =
+        MAPPING_RESOURCE_TYPES.contains(resourceType)
+            || (resourceType == ResourceType.USER
+                && event.getOperationType() == OperationType.DELETE);
+    if (!graphChanged && !clientsChanged && !mappingsChanged) {
+      return;
+    }
+    RealmModel realm = session.realms().getRealm(event.getRealmId());
+    if (realm == null) {
+      return;
+    }
+    if (graphChanged) {
+      LOG.debugf("role graph of realm %s invalidated", realm.getName());
+      RoleGraphs.invalidate(session, realm);
+    } else if (clientsChanged) {
+      LOG.debugf("clients of realm %s invalidated", realm.getName());
+      RoleGraphs.invalidateClients(session, realm);
+    } else if (resourceType == ResourceType.GROUP || isGroupRoleMapping(event)) {
+      LOG.debugf("group roles of realm %s invalidated", realm.getName());
+      RoleGraphs.invalidateGroups(session, realm);
+    } else {
+      LOG.debugf("role mappings of realm %s invalidated", realm.getName());
+      RoleGraphs.invalidateMappings(session, realm);
+    }
+  }
+
+  private static boolean isGroupRoleMapping(AdminEvent event) {
+    return (event.getResourceType() == ResourceType.REALM_ROLE_MAPPING
+            || event.getResourceType() == ResourceType.CLIENT_ROLE_MAPPING)
+        && event.getResourcePath() != null
+        && event.getResourcePath().startsWith("groups/");
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+}
@@ -0,0 +1,52 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import com.google.auto.service.AutoService;
+import java.time.Duration;
+import org.keycloak.Config;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+@AutoService(EventListenerProviderFactory.class)
+public class RoleGraphEventListenerProviderFactory implements EventListenerProviderFactory {
+  public static final String PROVIDER_ID = "role-graph";
+
+  @Override
+  public EventListenerProvider create(KeycloakSession session) {
+    return new RoleGraphEventListenerProvider(session);
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    String maxAge = config.get("graphMaxAge");
+    if (maxAge != null) {
+      RoleGraphs.setMaxAge(Duration.parse(maxAge).toMillis());
+    }
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    KeycloakModelUtils.runJobInTransaction(
+        factory,
+        session -> {
+          ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+          if (cluster != null) {
+            cluster.registerListener(RoleGraphs.INVALIDATION_TASK_KEY, RoleGraphs::onInvalidation);
+          }
+        });
+  }
+
+  @Override
+  public void close() {
+    // intentionally empty
+  }
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+}
@@ -0,0 +1,22 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import lombok.Value;
+import org.keycloak.cluster.ClusterEvent;
+
+/** Notifies the other nodes that a realm's role mappings, group roles or clients changed. */
+@Value
+public class RoleGraphInvalidationEvent implements ClusterEvent {
+  private static final long serialVersionUID = 2L;
+
+  /** What changed; a change of group roles is also one of role mappings. */
+  public enum Change {
+    MAPPINGS,
+    GROUPS,
+    CLIENTS
+  }
+
+  String realmId;
+
+  Change change;
+}
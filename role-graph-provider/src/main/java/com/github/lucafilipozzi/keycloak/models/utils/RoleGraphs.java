@@ -0,0 +1,173 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphInvalidationEvent.Change;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * Per-node registry of compiled role graphs, one per realm. Each graph is stamped with the value of
+ * the realm's {@code role-graph-version} attribute at the time it was compiled; the {@code
+ * role-graph} event listener changes that attribute whenever the roles of a realm change, which
+ * Keycloak's realm cache invalidates across the cluster, so that every node recompiles its graph on
+ * next use. As the listener may not be enabled, or a change not be made through the admin API, a
+ * graph is also recompiled once older than the max age.
+ *
+ * <p>The versions of role mappings and group roles change far more often (on every role mapping or
+ * group membership change), and that of clients on changes that leave the graph as it is, so they
+ * are not realm attributes, whose every change would evict the realm from every node's realm cache
+ * and, for the graph's, have it recompiled: each node keeps its own, replacing them when the
+ * listener records a change and when notified, through the cluster provider, of a change on another
+ * node.
+ */
+public final class RoleGraphs {
+  public static final String VERSION_ATTRIBUTE_NAME = "role-graph-version";
+
+  public static final String INVALIDATION_TASK_KEY = "role-graph-invalidation";
+
+  public static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+
+  private static final Map<String, CompiledRoleGraph> GRAPHS = new ConcurrentHashMap<>();
+
+  private static final Map<String, String> MAPPING_VERSIONS = new ConcurrentHashMap<>();
+
+  private static final Map<String, String> GROUP_VERSIONS = new ConcurrentHashMap<>();
+
+  private static final Map<String, String> CLIENT_VERSIONS = new ConcurrentHashMap<>();
+
+  private static volatile long maxAge = DEFAULT_MAX_AGE;
+
+  private RoleGraphs() {}
+
+  /** Sets the age beyond which a graph is recompiled even though its version is current. */
+  public static void setMaxAge(long maxAgeMillis) {
+    maxAge = maxAgeMillis;
+  }
+
+  public static CompiledRoleGraph get(RealmModel realm) {
+    String version = realm.getAttribute(VERSION_ATTRIBUTE_NAME);
+    String currentVersion = version == null ? "" : version;
+    CompiledRoleGraph graph = GRAPHS.get(realm.getId());
+    if (graph == null
+        || !graph.getVersion().equals(currentVersion)
+        || Time.currentTimeMillis() - graph.getCompiledAt() > maxAge) {
+      graph = CompiledRoleGraph.compile(realm, currentVersion);
+      GRAPHS.put(realm.getId(), graph);
+    }
+    return graph;
+  }
+
+  /** Returns a graph that knows the given role, recompiling it if the role is newer. */
+  public static CompiledRoleGraph get(RealmModel realm, RoleModel role) {
+    return get(realm, List.of(role.getId()));
+  }
+
+  /** Returns a graph that knows the roles of the given ids, recompiling it if any is newer. */
+  public static CompiledRoleGraph get(RealmModel realm, Collection<String> roleIds) {
+    CompiledRoleGraph graph = get(realm);
+    if (roleIds.stream().anyMatch(roleId -> graph.indexOf(roleId) < 0)) {
+      CompiledRoleGraph recompiled = CompiledRoleGraph.compile(realm, graph.getVersion());
+      GRAPHS.put(realm.getId(), recompiled);
+      return recompiled;
+    }
+    return graph;
+  }
+
+  /**
+   * Returns this node's version of the realm's role mappings, which changes whenever any role
+   * mapping, group membership or group, or the graph itself, changes; or null if the {@code
+   * role-graph} event listener is not enabled for the realm, in which case decisions drawn from role mappings must not be reused. Versions differ between nodes, so that a
+   * decision made on one node is made afresh on another.
+   */
+  public static String getMappingVersion(RealmModel realm) {
+    return isTracked(realm) ? version(MAPPING_VERSIONS, realm.getId()) : null;
+  }
+
+  /**
+   * Returns this node's version of the realm's groups, which changes whenever a group is created,
+   * moved or deleted, or its role mappings change; or null if the {@code role-graph} event listener
+   * is not enabled for the realm, in which case the roles that groups inherit must not be reused.
+   */
+  public static String getGroupVersion(RealmModel realm) {
+    return isTracked(realm) ? version(GROUP_VERSIONS, realm.getId()) : null;
+  }
+
+  /**
+   * Returns this node's version of the realm's clients, which changes whenever a client or client
+   * scope is updated or deleted, or a protocol mapper or a client's client scopes change; or null
+   * if the {@code role-graph} event listener is not enabled for the realm, in which case what is
+   * derived from clients must not be reused.
+   */
+  public static String getClientVersion(RealmModel realm) {
+    return isTracked(realm) ? version(CLIENT_VERSIONS, realm.getId()) : null;
+  }
+
+  /** Marks the realm's graph, and therefore every decision drawn from it, as stale. */
+  public static void invalidate(KeycloakSession session, RealmModel realm) {
+    realm.setAttribute(VERSION_ATTRIBUTE_NAME, KeycloakModelUtils.generateId());
+    GRAPHS.remove(realm.getId());
+    invalidateMappings(session, realm);
+  }
+
+  /** Marks every decision drawn from the realm's role mappings as stale, on every node. */
+  public static void invalidateMappings(KeycloakSession session, RealmModel realm) {
+    notify(session, new RoleGraphInvalidationEvent(realm.getId(), Change.MAPPINGS));
+  }
+
+  /** Marks the roles that the realm's groups inherit, and every decision drawn from them, stale. */
+  public static void invalidateGroups(KeycloakSession session, RealmModel realm) {
+    notify(session, new RoleGraphInvalidationEvent(realm.getId(), Change.GROUPS));
+  }
+
+  /** Marks what is derived from the realm's clients, but not the graph, as stale. */
+  public static void invalidateClients(KeycloakSession session, RealmModel realm) {
+    notify(session, new RoleGraphInvalidationEvent(realm.getId(), Change.CLIENTS));
+  }
+
+  /** Applies an invalidation, whether recorded on this node or notified by another. */
+  static void onInvalidation(ClusterEvent event) {
+    if (event instanceof RoleGraphInvalidationEvent) {
+      RoleGraphInvalidationEvent invalidation = (RoleGraphInvalidationEvent) event;
+      switch (invalidation.getChange()) {
+        case CLIENTS:
+          CLIENT_VERSIONS.remove(invalidation.getRealmId());
+          break;
+        case GROUPS:
+          GROUP_VERSIONS.remove(invalidation.getRealmId());
+          MAPPING_VERSIONS.remove(invalidation.getRealmId());
+          break;
+        default:
+          MAPPING_VERSIONS.remove(invalidation.getRealmId());
+      }
+    }
+  }
+
+  private static void notify(KeycloakSession session, RoleGraphInvalidationEvent event) {
+    onInvalidation(event);
+    ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+    if (cluster != null) {
+      cluster.notify(INVALIDATION_TASK_KEY, event, true, ClusterProvider.DCNotify.ALL_DCS);
+    }
+  }
+
+  private static boolean isTracked(RealmModel realm) {
+    // admin events reach the listeners whether or not the realm saves them
+    return realm
+        .getEventsListenersStream()
+        .anyMatch(RoleGraphEventListenerProviderFactory.PROVIDER_ID::equals);
+  }
+
+  private static String version(Map<String, String> versions, String realmId) {
+    return versions.computeIfAbsent(realmId, id -> KeycloakModelUtils.generateId());
+  }
+}
@@ -0,0 +1,41 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+
+/**
+ * Iterative walk of the composite role graph. Each role is expanded at most once, so that
+ * diamond-shaped graphs cost one visit per role rather than one per path, and an (accidental)
+ * composite cycle terminates rather than overflowing the stack.
+ */
+final class RoleTraversal {
+  private RoleTraversal() {}
+
+  /**
+   * Returns the closure of the role of the given dense id over the composites of each role,
+   * including the role itself. Closures already computed ({@code known}, null where not) are
+   * reused rather than walked again.
+   */
+  static BitSet closure(int root, int[][] composites, BitSet[] known) {
+    BitSet closure = new BitSet(composites.length);
+    Deque<Integer> pending = new ArrayDeque<>();
+    closure.set(root);
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      for (int composite : composites[pending.pop()]) {
+        if (closure.get(composite)) {
+          continue;
+        }
+        if (known[composite] != null) {
+          closure.or(known[composite]);
+        } else {
+          closure.set(composite);
+          pending.push(composite);
+        }
+      }
+    }
+    return closure;
+  }
+}
@@ -0,0 +1,211 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.protocol.oidc.mappers;
+
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import com.google.auto.service.AutoService;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientSessionContext;
+import org.keycloak.models.ImpersonationSessionNote;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ProtocolMapperContainerModel;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.protocol.ProtocolMapper;
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+import org.keycloak.protocol.oidc.TokenManager;
+import org.keycloak.protocol.oidc.mappers.AbstractOIDCProtocolMapper;
+import org.keycloak.protocol.oidc.mappers.OIDCAccessTokenMapper;
+import org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper;
+import org.keycloak.protocol.oidc.mappers.OIDCIDTokenMapper;
+import org.keycloak.protocol.oidc.mappers.UserInfoTokenMapper;
+import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.provider.ProviderConfigurationBuilder;
+import org.keycloak.representations.IDToken;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * Maps the impersonator's roles of the client that grant a given role, however deeply composited,
+ * to a claim. The roles are computed from the realm's compiled role graph when a token is issued,
+ * and only for clients that include the mapper, in place of the {@code IMPERSONATOR_ROLES} user
+ * session note that the authenticators otherwise write on every authentication.
+ */
+@AutoService(ProtocolMapper.class)
+public class ImpersonatorRolesProtocolMapper extends AbstractOIDCProtocolMapper
+    implements OIDCAccessTokenMapper, OIDCIDTokenMapper, UserInfoTokenMapper {
+  public static final String PROVIDER_ID = "oidc-impersonator-roles-mapper";
+
+  public static final String ROLE_NAME = "roleName";
+
+  public static final String DEFAULT_ROLE_NAME = "realm-management.impersonation";
+
+  public static final String CLIENT_ID_PLACEHOLDER = "${clientId}";
+
+  private static final String IMPERSONATOR_ID = ImpersonationSessionNote.IMPERSONATOR_ID.toString();
+
+  private static final List<ProviderConfigProperty> CONFIG_PROPERTIES;
+
+  static {
+    CONFIG_PROPERTIES =
+        ProviderConfigurationBuilder.create()
+            .property()
+            .name(ROLE_NAME)
+            .type(ProviderConfigProperty.STRING_TYPE)
+            .label("role name")
+            .helpText(
+                "Specify the role that the impersonator's client roles must grant, for example "
+                    + "'realm-management.impersonation' (default) or '${clientId}.impersonator'.")
+            .defaultValue(DEFAULT_ROLE_NAME)
+            .add()
+            .build();
+    OIDCAttributeMapperHelper.addTokenClaimNameConfig(CONFIG_PROPERTIES);
+    OIDCAttributeMapperHelper.addIncludeInTokensConfig(
+        CONFIG_PROPERTIES, ImpersonatorRolesProtocolMapper.class);
+  }
+
+  /**
+   * Returns whether tokens issued for the authentication session are subject to this mapper,
+   * configured with the role of the given id: whether its client includes such a mapper, directly
+   * or through a default client scope, or through an optional client scope that the session
+   * requests. Which scopes include which roles' mappers is memoised per client in the realm's
+   * compiled role graph until the realm's clients change.
+   */
+  public static boolean isUsedBy(
+      RealmModel realm, AuthenticationSessionModel authSession, String roleId) {
+    ClientModel client = authSession.getClient();
+    Usage usage =
+        RoleGraphs.get(realm)
+            .memoise(
+                client,
+                PROVIDER_ID,
+                RoleGraphs.getClientVersion(realm),
+                scopedClient -> Usage.of(realm, scopedClient));
+    if (usage.byDefault.contains(roleId)) {
+      return true;
+    }
+    String scopeParam = authSession.getClientNote(OIDCLoginProtocol.SCOPE_PARAM);
+    return scopeParam != null
+        && !usage.optionalScopes.isEmpty()
+        && TokenManager.parseScopeParameter(scopeParam)
+            .map(usage.optionalScopes::get)
+            .anyMatch(roleIds -> roleIds != null && roleIds.contains(roleId));
+  }
+
+  /** Returns the impersonator's roles of the client that grant the role, including the role. */
+  public static List<String> getImpersonatorRoles(
+      RealmModel realm, ClientModel client, RoleModel role, UserModel impersonator) {
+    CompiledRoleGraph graph = RoleGraphs.get(realm, role);
+    BitSet roles = graph.clientRolesGranting(client, role);
+    roles.and(graph.effectiveRoles(impersonator, RoleGraphs.getGroupVersion(realm)));
+    return graph.getNames(roles);
+  }
+
+  @Override
+  protected void setClaim(
+      IDToken token,
+      ProtocolMapperModel mappingModel,
+      UserSessionModel userSession,
+      KeycloakSession session,
+      ClientSessionContext clientSessionCtx) {
+    String impersonatorId = userSession.getNote(IMPERSONATOR_ID);
+    if (impersonatorId == null) {
+      return; // impersonation is not active
+    }
+
+    RealmModel realm = userSession.getRealm();
+    ClientModel client = clientSessionCtx.getClientSession().getClient();
+    RoleModel role = getRole(realm, client, mappingModel);
+    UserModel impersonator = session.users().getUserById(realm, impersonatorId);
+    if (role == null || impersonator == null) {
+      return;
+    }
+
+    List<String> roles = getImpersonatorRoles(realm, client, role, impersonator);
+    if (!roles.isEmpty()) {
+      OIDCAttributeMapperHelper.mapClaim(token, mappingModel, roles);
+    }
+  }
+
+  /** Returns the role that the mapper is configured with, for the client, or null if none. */
+  private static RoleModel getRole(
+      RealmModel realm, ClientModel client, ProtocolMapperModel mappingModel) {
+    String roleName = mappingModel.getConfig().getOrDefault(ROLE_NAME, DEFAULT_ROLE_NAME);
+    return KeycloakModelUtils.getRoleFromString(
+        realm, roleName.replace(CLIENT_ID_PLACEHOLDER, client.getClientId()));
+  }
+
+  /** The client scopes of a client through which it includes this mapper, by role configured. */
+  private static final class Usage {
+    private final Set<String> byDefault; // by the client itself or its default client scopes
+
+    private final Map<String, Set<String>> optionalScopes; // by name of optional client scope
+
+    private Usage(Set<String> byDefault, Map<String, Set<String>> optionalScopes) {
+      this.byDefault = byDefault;
+      this.optionalScopes = optionalScopes;
+    }
+
+    private static Usage of(RealmModel realm, ClientModel client) {
+      return new Usage(
+          Stream.concat(Stream.of(client), client.getClientScopes(true).values().stream())
+              .flatMap(container -> roleIds(realm, client, container))
+              .collect(Collectors.toUnmodifiableSet()),
+          client.getClientScopes(false).entrySet().stream()
+              .map(
+                  scope ->
+                      Map.entry(
+                          scope.getKey(),
+                          roleIds(realm, client, scope.getValue())
+                              .collect(Collectors.toUnmodifiableSet())))
+              .filter(scope -> !scope.getValue().isEmpty())
+              .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue)));
+    }
+
+    /** Returns the ids of the roles configured on the container's mappers of this type. */
+    private static Stream<String> roleIds(
+        RealmModel realm, ClientModel client, ProtocolMapperContainerModel container) {
+      return container
+          .getProtocolMappersStream()
+          .filter(mapper -> PROVIDER_ID.equals(mapper.getProtocolMapper()))
+          .map(mapper -> getRole(realm, client, mapper))
+          .filter(Objects::nonNull)
+          .map(RoleModel::getId);
+    }
+  }
+
+  @Override
+  public String getDisplayCategory() {
+    return TOKEN_MAPPER_CATEGORY;
+  }
+
+  @Override
+  public String getDisplayType() {
+    return "Impersonator Roles";
+  }
+
+  @Override
+  public String getHelpText() {
+    return "Map the impersonator's client roles that grant a role to a token claim.";
+  }
+
+  @Override
+  public List<ProviderConfigProperty> getConfigProperties() {
+    return CONFIG_PROPERTIES;
+  }
+
+  @Override
+  public String getId() {
+    return PROVIDER_ID;
+  }
+}
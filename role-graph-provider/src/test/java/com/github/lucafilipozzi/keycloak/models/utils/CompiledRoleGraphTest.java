@@ -0,0 +1,243 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphInvalidationEvent.Change;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+
+public class CompiledRoleGraphTest {
+  @Test
+  public void testEffectiveRolesFollowCompositesAndGroups() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel impersonation = fixture.clientRole("realm-management", "impersonation");
+    RoleModel viewUsers = fixture.clientRole("realm-management", "view-users");
+    RoleModel admin = fixture.realmRole("admin");
+    RoleModel auditor = fixture.realmRole("auditor");
+    RoleModel unused = fixture.realmRole("unused");
+    fixture.composite(admin, impersonation, auditor);
+    fixture.composite(auditor, viewUsers);
+    GroupModel parent = fixture.group(null, admin);
+    GroupModel child = fixture.group(parent);
+    UserModel user = fixture.user(List.of(child));
+
+    CompiledRoleGraph graph = CompiledRoleGraph.compile(fixture.realm(), "");
+    BitSet effective = graph.effectiveRoles(user);
+
+    assertThat(
+        graph.getNames(effective),
+        containsInAnyOrder(
+            "admin", "auditor", "realm-management.impersonation", "realm-management.view-users"));
+    assertThat(effective.get(graph.indexOf(unused)), is(false));
+  }
+
+  @Test
+  public void testGroupRolesAreReusedWithinAGroupVersion() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel admin = fixture.realmRole("admin");
+    RoleModel auditor = fixture.realmRole("auditor");
+    GroupModel root = fixture.group(null, auditor);
+    GroupModel unit = fixture.group(root);
+    UserModel user = fixture.user(List.of(fixture.group(unit)));
+
+    CompiledRoleGraph graph = CompiledRoleGraph.compile(fixture.realm(), "");
+    assertThat(graph.getNames(graph.effectiveRoles(user, "1")), contains("auditor"));
+
+    fixture.grant(root, admin);
+    assertThat(graph.getNames(graph.effectiveRoles(user, "1")), contains("auditor"));
+    assertThat(
+        graph.getNames(graph.effectiveRoles(user, "2")), containsInAnyOrder("admin", "auditor"));
+    assertThat(graph.getNames(graph.effectiveRoles(user)), containsInAnyOrder("admin", "auditor"));
+  }
+
+  @Test
+  public void testEffectiveRolesFromIdsMatchThoseFromUser() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel admin = fixture.realmRole("admin");
+    RoleModel auditor = fixture.realmRole("auditor");
+    RoleModel viewUsers = fixture.clientRole("realm-management", "view-users");
+    fixture.composite(auditor, viewUsers);
+    GroupModel parent = fixture.group(null, auditor);
+    GroupModel child = fixture.group(parent);
+
+    CompiledRoleGraph graph = CompiledRoleGraph.compile(fixture.realm(), "");
+    BitSet effective =
+        graph.effectiveRoles(List.of(admin.getId(), "created-since"), Stream.of(child), null);
+
+    assertThat(
+        graph.getNames(effective),
+        containsInAnyOrder("admin", "auditor", "realm-management.view-users"));
+  }
+
+  @Test
+  public void testClosureSurvivesDiamondsAndCycles() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel top = fixture.realmRole("top");
+    RoleModel left = fixture.realmRole("left");
+    RoleModel right = fixture.realmRole("right");
+    RoleModel bottom = fixture.realmRole("bottom");
+    fixture.composite(top, left, right);
+    fixture.composite(left, bottom);
+    fixture.composite(right, bottom);
+    fixture.composite(bottom, top); // cycle
+
+    CompiledRoleGraph graph = CompiledRoleGraph.compile(fixture.realm(), "");
+
+    assertThat(
+        graph.getNames(graph.expand(Stream.of(bottom))),
+        containsInAnyOrder("top", "left", "right", "bottom"));
+  }
+
+  @Test
+  public void testClientRolesGranting() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel impersonation = fixture.clientRole("realm-management", "impersonation");
+    RoleModel bridge = fixture.realmRole("bridge");
+    RoleModel direct = fixture.clientRole("app", "direct");
+    RoleModel indirect = fixture.clientRole("app", "indirect");
+    fixture.clientRole("app", "plain");
+    fixture.composite(direct, impersonation);
+    fixture.composite(indirect, bridge);
+    fixture.composite(bridge, impersonation);
+    ClientModel app = fixture.client("app");
+
+    CompiledRoleGraph graph = CompiledRoleGraph.compile(fixture.realm(), "");
+
+    assertThat(
+        graph.getNames(graph.clientRolesGranting(app, impersonation)),
+        contains("app.direct", "app.indirect"));
+    assertThat(
+        graph.getNames(
+            graph.clientRolesGranting(fixture.client("realm-management"), impersonation)),
+        contains("realm-management.impersonation"));
+  }
+
+  @Test
+  public void testClientRolesGrantingIsMemoisedAndCopied() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel impersonation = fixture.clientRole("realm-management", "impersonation");
+    RoleModel direct = fixture.clientRole("app", "direct");
+    fixture.composite(direct, impersonation);
+    ClientModel app = fixture.client("app");
+
+    CompiledRoleGraph graph = CompiledRoleGraph.compile(fixture.realm(), "");
+    graph.clientRolesGranting(app, impersonation).clear();
+
+    assertThat(
+        graph.getNames(graph.clientRolesGranting(app, impersonation)), contains("app.direct"));
+  }
+
+  @Test
+  public void testRegistryRecompilesOnInvalidation() {
+    RealmFixture fixture = new RealmFixture();
+    fixture.realmRole("existing");
+    RealmModel realm = fixture.realm();
+
+    CompiledRoleGraph first = RoleGraphs.get(realm);
+    assertThat(RoleGraphs.get(realm), is(sameInstance(first)));
+
+    RoleModel added = fixture.realmRole("added");
+    CompiledRoleGraph second = RoleGraphs.get(realm, added);
+    assertThat(second, is(not(sameInstance(first))));
+    assertThat(second.indexOf(added), is(not(equalTo(-1))));
+
+    RoleGraphs.invalidate(session(new ArrayList<>()), realm);
+    CompiledRoleGraph third = RoleGraphs.get(realm);
+    assertThat(third, is(not(sameInstance(second))));
+    assertThat(third.getVersion(), is(not(equalTo(second.getVersion()))));
+  }
+
+  @Test
+  public void testMappingVersionsAreReplacedAndNotified() {
+    RealmFixture fixture = new RealmFixture();
+    RealmModel realm = fixture.realm();
+    assertThat(RoleGraphs.getMappingVersion(realm), is(nullValue()));
+    assertThat(RoleGraphs.getGroupVersion(realm), is(nullValue()));
+
+    fixture.listen();
+    String mappingVersion = RoleGraphs.getMappingVersion(realm);
+    String groupVersion = RoleGraphs.getGroupVersion(realm);
+    assertThat(mappingVersion, is(notNullValue()));
+    assertThat(RoleGraphs.getMappingVersion(realm), is(equalTo(mappingVersion)));
+
+    List<ClusterEvent> notified = new ArrayList<>();
+    RoleGraphs.invalidateMappings(session(notified), realm);
+    assertThat(notified, hasSize(1));
+    assertThat(RoleGraphs.getMappingVersion(realm), is(not(equalTo(mappingVersion))));
+    assertThat(RoleGraphs.getGroupVersion(realm), is(equalTo(groupVersion)));
+    assertThat(realm.getAttribute(RoleGraphs.VERSION_ATTRIBUTE_NAME), is(nullValue()));
+
+    mappingVersion = RoleGraphs.getMappingVersion(realm);
+    RoleGraphs.onInvalidation(new RoleGraphInvalidationEvent(realm.getId(), Change.GROUPS));
+    assertThat(RoleGraphs.getMappingVersion(realm), is(not(equalTo(mappingVersion))));
+    assertThat(RoleGraphs.getGroupVersion(realm), is(not(equalTo(groupVersion))));
+  }
+
+  /** Creates a session whose cluster provider records the events of which it notifies others. */
+  private static KeycloakSession session(List<ClusterEvent> notified) {
+    ClusterProvider cluster =
+        (ClusterProvider)
+            Proxy.newProxyInstance(
+                CompiledRoleGraphTest.class.getClassLoader(),
+                new Class<?>[] {ClusterProvider.class},
+                (proxy, method, args) -> {
+                  if (!method.getName().equals("notify")) {
+                    throw new UnsupportedOperationException(method.getName());
+                  }
+                  notified.add((ClusterEvent) args[1]);
+                  return null;
+                });
+    return (KeycloakSession)
+        Proxy.newProxyInstance(
+            CompiledRoleGraphTest.class.getClassLoader(),
+            new Class<?>[] {KeycloakSession.class},
+            (proxy, method, args) -> {
+              if (!method.getName().equals("getProvider")) {
+                throw new UnsupportedOperationException(method.getName());
+              }
+              return args[0] == ClusterProvider.class ? cluster : null;
+            });
+  }
+
+  @Test
+  public void testRegistryRecompilesOnceOlderThanMaxAge() {
+    RealmFixture fixture = new RealmFixture();
+    fixture.realmRole("existing");
+    RealmModel realm = fixture.realm();
+
+    CompiledRoleGraph first = RoleGraphs.get(realm);
+    try {
+      Time.setOffset((int) TimeUnit.MILLISECONDS.toSeconds(RoleGraphs.DEFAULT_MAX_AGE) + 1);
+      CompiledRoleGraph second = RoleGraphs.get(realm);
+      assertThat(second, is(not(sameInstance(first))));
+      assertThat(second.getVersion(), is(equalTo(first.getVersion())));
+      assertThat(RoleGraphs.get(realm), is(sameInstance(second)));
+    } finally {
+      Time.setOffset(0);
+    }
+  }
+}
@@ -0,0 +1,233 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Builds just enough of a realm, out of dynamic proxies, for the role graph to be compiled against
+ * it; any other model method throws {@link UnsupportedOperationException}.
+ */
+public final class RealmFixture {
+  private static final AtomicInteger REALMS = new AtomicInteger();
+
+  // each fixture is a realm of its own, so that the graphs registered for it are too
+  private final String realmId = "realm-" + REALMS.incrementAndGet();
+
+  private final Map<String, RoleModel> roles = new LinkedHashMap<>();
+
+  private final Map<String, List<RoleModel>> composites = new HashMap<>();
+
+  private final Map<String, List<RoleModel>> clientRoles = new LinkedHashMap<>();
+
+  private final Map<String, ClientModel> clients = new HashMap<>();
+
+  private final Map<String, String> attributes = new HashMap<>();
+
+  private final Map<String, Integer> expansions = new HashMap<>();
+
+  private final Map<String, List<RoleModel>> groupMappings = new HashMap<>();
+
+  private boolean listening;
+
+  public RoleModel realmRole(String name) {
+    return role(name, realmId);
+  }
+
+  public RoleModel clientRole(String clientId, String name) {
+    client(clientId);
+    RoleModel role = role(clientId + "." + name, clientId);
+    clientRoles.get(clientId).add(role);
+    return role;
+  }
+
+  public ClientModel client(String clientId) {
+    return clients.computeIfAbsent(
+        clientId,
+        id -> {
+          clientRoles.put(id, new ArrayList<>());
+          return fake(
+              ClientModel.class,
+              Map.of(
+                  "getId",
+                  () -> id,
+                  "getClientId",
+                  () -> id,
+                  "getRolesStream",
+                  () -> clientRoles.get(id).stream()),
+              Map.of("getRole", name -> roles.get(id + "." + name)),
+              null);
+        });
+  }
+
+  /** Returns how many times the composites of the role were walked. */
+  int expansions(RoleModel role) {
+    return expansions.getOrDefault(role.getId(), 0);
+  }
+
+  public void composite(RoleModel role, RoleModel... children) {
+    composites.get(role.getId()).addAll(List.of(children));
+  }
+
+  public GroupModel group(GroupModel parent, RoleModel... mappings) {
+    String id = "group-" + groupMappings.size();
+    groupMappings.put(id, new ArrayList<>(List.of(mappings)));
+    return fake(
+        GroupModel.class,
+        Map.of(
+            "getId",
+            () -> id,
+            "getParent",
+            () -> parent,
+            "getParentId",
+            () -> parent == null ? null : parent.getId(),
+            "getRoleMappingsStream",
+            () -> groupMappings.get(id).stream()));
+  }
+
+  public void grant(GroupModel group, RoleModel role) {
+    groupMappings.get(group.getId()).add(role);
+  }
+
+  /** Enables the {@code role-graph} event listener for the realm. */
+  public void listen() {
+    listening = true;
+  }
+
+  public UserModel user(List<GroupModel> groups, RoleModel... mappings) {
+    return fake(
+        UserModel.class,
+        Map.of(
+            "getRoleMappingsStream",
+            () -> List.of(mappings).stream(),
+            "getGroupsStream",
+            () -> groups.stream()));
+  }
+
+  public RealmModel realm() {
+    return fake(
+        RealmModel.class,
+        Map.of(
+            "getId",
+            () -> realmId,
+            "getName",
+            () -> realmId,
+            "getRolesStream",
+            (Supplier<Object>)
+                () -> roles.values().stream().filter(r -> r.getContainerId().equals(realmId)),
+            "getClientsStream",
+            () -> clients.values().stream(),
+            "getEventsListenersStream",
+            () ->
+                listening
+                    ? Stream.of(RoleGraphEventListenerProviderFactory.PROVIDER_ID)
+                    : Stream.empty()),
+        Map.of(
+            "getClientByClientId",
+            clients::get,
+            "getRole",
+            name -> {
+              RoleModel role = roles.get(name);
+              return role != null && role.getContainerId().equals(realmId) ? role : null;
+            }),
+        attributes);
+  }
+
+  private RoleModel role(String name, String containerId) {
+    composites.put(name, new ArrayList<>());
+    RoleModel role =
+        fake(
+            RoleModel.class,
+            Map.of(
+                "getId",
+                () -> name,
+                "getName",
+                () -> name,
+                "getContainerId",
+                () -> containerId,
+                "getCompositesStream",
+                () -> {
+                  expansions.merge(name, 1, Integer::sum);
+                  return composites.get(name).stream();
+                },
+                "isComposite",
+                () -> !composites.get(name).isEmpty()));
+    roles.put(name, role);
+    return role;
+  }
+
+  /** Answers the methods of a fake by name. */
+  public interface Answers {
+    Object answer(String method, Object[] args);
+  }
+
+  /** Returns a fake of the interface whose every method is answered by {@code answers}. */
+  public static <T> T fake(Class<T> type, Answers answers) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (self, method, args) -> answers.answer(method.getName(), args)));
+  }
+
+  private static <T> T fake(Class<T> type, Map<String, Supplier<?>> answers) {
+    return fake(type, answers, Map.of(), null);
+  }
+
+  /** Returns a fake answering by name, looking up by argument and holding the attributes given. */
+  private static <T> T fake(
+      Class<T> type,
+      Map<String, Supplier<?>> answers,
+      Map<String, Function<Object, ?>> lookups,
+      Map<String, String> attributes) {
+    Object proxy =
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (self, method, args) -> {
+              switch (method.getName()) {
+                case "equals":
+                  return self == args[0];
+                case "hashCode":
+                  return System.identityHashCode(self);
+                case "toString":
+                  return type.getSimpleName();
+                case "getAttribute":
+                  if (attributes != null && args.length == 1) {
+                    return attributes.get((String) args[0]);
+                  }
+                  break;
+                case "setAttribute":
+                  if (attributes != null && args[1] instanceof String) {
+                    attributes.put((String) args[0], (String) args[1]);
+                    return null;
+                  }
+                  break;
+                default:
+                  Function<Object, ?> lookup = lookups.get(method.getName());
+                  if (lookup != null && args != null && args.length == 1) {
+                    return lookup.apply(args[0]);
+                  }
+                  Supplier<?> answer = answers.get(method.getName());
+                  if (answer != null) {
+                    return answer.get();
+                  }
+              }
+              throw new UnsupportedOperationException(method.getName());
+            });
+    return type.cast(proxy);
+  }
+}
@@ -0,0 +1,198 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.RoleUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares role resolution by walking the role models, as the require-role and extended-cookie
+ * authenticators did, with the compiled role graph, over synthetic realms.
+ *
+ * <p>Roles are arranged in {@code depth} layers of {@code width} roles, the last layer composited
+ * with {@code realm-management.impersonation}. In a {@code chain} each role is composited with the
+ * role below it; in a {@code diamond} with every role of the layer below, so that the number of
+ * paths grows as width to the power of depth. The client has one role composited with each role
+ * of the first layer, and the user holds one of them through the top group of a chain of {@code
+ * groupDepth} groups.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class RoleGraphBenchmark {
+  @Param({"chain", "diamond"})
+  private String shape;
+
+  @Param({"2", "6"})
+  private int depth;
+
+  @Param({"4"})
+  private int width;
+
+  @Param({"6"})
+  private int groupDepth;
+
+  private RealmModel realm;
+
+  private ClientModel client;
+
+  private UserModel user;
+
+  private RoleModel requiredRole;
+
+  private CompiledRoleGraph graph;
+
+  @Setup
+  public void setup() {
+    RealmFixture fixture = new RealmFixture();
+    requiredRole = fixture.clientRole("realm-management", "impersonation");
+    List<RoleModel> below = List.of(requiredRole);
+    for (int d = depth - 1; d >= 0; d--) {
+      List<RoleModel> layer = new ArrayList<>();
+      for (int w = 0; w < width; w++) {
+        RoleModel role = fixture.realmRole("role-" + d + "-" + w);
+        if (below.size() == 1 || shape.equals("diamond")) {
+          fixture.composite(role, below.toArray(RoleModel[]::new));
+        } else {
+          fixture.composite(role, below.get(w));
+        }
+        layer.add(role);
+      }
+      below = layer;
+    }
+    List<RoleModel> clientRoles = new ArrayList<>();
+    for (int w = 0; w < width; w++) {
+      RoleModel clientRole = fixture.clientRole("app", "impersonator-" + w);
+      fixture.composite(clientRole, below.get(w));
+      clientRoles.add(clientRole);
+    }
+    for (int w = 0; w < width; w++) {
+      fixture.realmRole("unrelated-" + w);
+    }
+    GroupModel group = fixture.group(null, clientRoles.get(0));
+    for (int g = 1; g < groupDepth; g++) {
+      group = fixture.group(group);
+    }
+    user = fixture.user(List.of(group), fixture.realmRole("default-roles"));
+    client = fixture.client("app");
+    realm = fixture.realm();
+    graph = CompiledRoleGraph.compile(realm, "");
+  }
+
+  @Benchmark
+  public boolean hasRoleByWalking() {
+    return RoleUtils.hasRole(RoleUtils.getDeepUserRoleMappings(user), requiredRole);
+  }
+
+  @Benchmark
+  public boolean hasRoleByGraph() {
+    return graph.effectiveRoles(user).get(graph.indexOf(requiredRole));
+  }
+
+  @Benchmark
+  public boolean hasRoleByGraphReusingGroupRoles() {
+    return graph.effectiveRoles(user, "").get(graph.indexOf(requiredRole));
+  }
+
+  @Benchmark
+  public Set<RoleModel> impersonatorRolesByWalking() {
+    Set<RoleModel> clientRoles =
+        client
+            .getRolesStream()
+            .filter(RoleModel::isComposite)
+            .filter(x -> getDeepRoleCompositesStream(x).anyMatch(y -> y.equals(requiredRole)))
+            .collect(Collectors.toSet());
+    clientRoles.retainAll(RoleUtils.getDeepUserRoleMappings(user));
+    return clientRoles;
+  }
+
+  @Benchmark
+  public Set<RoleModel> impersonatorRolesByTraversal() {
+    Set<RoleModel> clientRoles =
+        client
+            .getRolesStream()
+            .filter(RoleModel::isComposite)
+            .filter(x -> grants(x, requiredRole))
+            .collect(Collectors.toSet());
+    clientRoles.retainAll(RoleUtils.getDeepUserRoleMappings(user));
+    return clientRoles;
+  }
+
+  @Benchmark
+  public BitSet impersonatorRolesByGraph() {
+    BitSet roleIntersection = graph.clientRolesGranting(client, requiredRole);
+    roleIntersection.and(graph.effectiveRoles(user));
+    return roleIntersection;
+  }
+
+  @Benchmark
+  public CompiledRoleGraph compile() {
+    return CompiledRoleGraph.compile(realm, "");
+  }
+
+  // the recursive walk that the authenticators used, without a visited set
+  private static Stream<RoleModel> getDeepRoleCompositesStream(final RoleModel role) {
+    return Stream.concat(
+        Stream.of(role),
+        role.getCompositesStream().flatMap(RoleGraphBenchmark::getDeepRoleCompositesStream));
+  }
+
+  // an iterative walk with a visited set, stopping as soon as the target is found
+  private static boolean grants(RoleModel role, RoleModel target) {
+    Set<String> visited = new HashSet<>();
+    Deque<RoleModel> pending = new ArrayDeque<>();
+    visited.add(role.getId());
+    pending.push(role);
+    while (!pending.isEmpty()) {
+      RoleModel current = pending.pop();
+      if (current.getId().equals(target.getId())) {
+        return true;
+      }
+      current
+          .getCompositesStream()
+          .filter(composite -> visited.add(composite.getId()))
+          .forEach(pending::push);
+    }
+    return false;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(RoleGraphBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,68 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.models.utils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.BitSet;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.keycloak.models.RoleModel;
+
+public class RoleTraversalTest {
+  @Test
+  public void testDiamondsAreWalkedOnce() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel top = fixture.realmRole("top");
+    RoleModel left = fixture.realmRole("left");
+    RoleModel right = fixture.realmRole("right");
+    RoleModel bottom = fixture.realmRole("bottom");
+    RoleModel leaf = fixture.realmRole("leaf");
+    fixture.realmRole("target");
+    fixture.composite(top, left, right);
+    fixture.composite(left, bottom);
+    fixture.composite(right, bottom);
+    fixture.composite(bottom, leaf);
+
+    CompiledRoleGraph graph = CompiledRoleGraph.compile(fixture.realm(), "");
+    assertThat(
+        graph.getNames(graph.expand(Stream.of(top))),
+        containsInAnyOrder("top", "left", "right", "bottom", "leaf"));
+    assertThat(fixture.expansions(bottom), is(equalTo(1)));
+  }
+
+  @Test
+  public void testCyclesTerminate() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel first = fixture.realmRole("first");
+    RoleModel second = fixture.realmRole("second");
+    RoleModel third = fixture.realmRole("third");
+    fixture.realmRole("target");
+    fixture.composite(first, second);
+    fixture.composite(second, third);
+    fixture.composite(third, first);
+
+    CompiledRoleGraph graph = CompiledRoleGraph.compile(fixture.realm(), "");
+    assertThat(
+        graph.getNames(graph.expand(Stream.of(second))),
+        containsInAnyOrder("first", "second", "third"));
+    assertThat(fixture.expansions(first), is(equalTo(1)));
+  }
+
+  @Test
+  public void testKnownClosuresAreReused() {
+    int[][] composites = {{1}, {2}, {}};
+    BitSet[] known = new BitSet[3];
+    known[1] = new BitSet();
+    known[1].set(1);
+    known[1].set(2);
+
+    BitSet closure = RoleTraversal.closure(0, composites, known);
+    assertThat(closure.cardinality(), is(equalTo(3)));
+
+    composites[1] = new int[0]; // not walked again: its known closure still reaches 2
+    assertThat(RoleTraversal.closure(0, composites, known), is(equalTo(closure)));
+  }
+}
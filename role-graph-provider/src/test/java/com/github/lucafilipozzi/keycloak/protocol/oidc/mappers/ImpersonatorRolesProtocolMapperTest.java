@@ -0,0 +1,173 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.protocol.oidc.mappers;
+
+import static com.github.lucafilipozzi.keycloak.models.utils.RealmFixture.fake;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import com.github.lucafilipozzi.keycloak.models.utils.CompiledRoleGraph;
+import com.github.lucafilipozzi.keycloak.models.utils.RealmFixture;
+import com.github.lucafilipozzi.keycloak.models.utils.RoleGraphs;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientScopeModel;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ProtocolMapperModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RoleModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+public class ImpersonatorRolesProtocolMapperTest {
+  @Test
+  public void testImpersonatorRolesAreThoseOfTheClientGrantingTheRole() {
+    RealmFixture fixture = new RealmFixture();
+    RoleModel impersonation = fixture.clientRole("realm-management", "impersonation");
+    RoleModel impersonator = fixture.realmRole("impersonator");
+    RoleModel direct = fixture.clientRole("app", "direct");
+    RoleModel indirect = fixture.clientRole("app", "indirect");
+    RoleModel unheld = fixture.clientRole("app", "unheld");
+    RoleModel other = fixture.clientRole("other", "direct");
+    fixture.composite(impersonator, impersonation);
+    fixture.composite(direct, impersonation);
+    fixture.composite(indirect, impersonator);
+    fixture.composite(unheld, impersonation);
+    fixture.composite(other, impersonation);
+    GroupModel group = fixture.group(null, indirect);
+    UserModel user = fixture.user(List.of(group), direct, other);
+    ClientModel client = fixture.client("app");
+
+    assertThat(
+        ImpersonatorRolesProtocolMapper.getImpersonatorRoles(
+            fixture.realm(), client, impersonation, user),
+        containsInAnyOrder("app.direct", "app.indirect"));
+    assertThat(
+        ImpersonatorRolesProtocolMapper.getImpersonatorRoles(
+            fixture.realm(), client, impersonation, fixture.user(List.of(), other)),
+        empty());
+  }
+
+  @Test
+  public void testUsageConsidersDefaultAndRequestedScopesOnly() {
+    RealmFixture fixture = new RealmFixture();
+    fixture.listen();
+    String impersonation = fixture.clientRole("realm-management", "impersonation").getId();
+    RealmModel realm = fixture.realm();
+    int[] scopeReads = new int[1];
+    ClientModel client =
+        fake(
+            ClientModel.class,
+            (method, args) -> {
+              switch (method) {
+                case "getId":
+                case "getClientId":
+                  return "scoped";
+                case "getProtocolMappersStream":
+                  return Stream.empty();
+                case "getClientScopes":
+                  scopeReads[0]++;
+                  return (Boolean) args[0]
+                      ? Map.of("profile", clientScope())
+                      : Map.of("impersonation", clientScope(mapper(null)), "email", clientScope());
+                default:
+                  throw new UnsupportedOperationException(method);
+              }
+            });
+
+    assertThat(
+        ImpersonatorRolesProtocolMapper.isUsedBy(realm, authSession(client, null), impersonation),
+        is(false));
+    assertThat(
+        ImpersonatorRolesProtocolMapper.isUsedBy(
+            realm, authSession(client, "openid email"), impersonation),
+        is(false));
+    assertThat(
+        ImpersonatorRolesProtocolMapper.isUsedBy(
+            realm, authSession(client, "openid impersonation"), impersonation),
+        is(true));
+    assertThat(scopeReads[0], is(equalTo(2))); // default and optional scopes, read once
+
+    CompiledRoleGraph graph = RoleGraphs.get(realm);
+    RoleGraphs.invalidateClients(fake(KeycloakSession.class, (method, args) -> null), realm);
+    assertThat(
+        ImpersonatorRolesProtocolMapper.isUsedBy(realm, authSession(client, null), impersonation),
+        is(false));
+    assertThat(scopeReads[0], is(equalTo(4))); // read again, but the graph is kept
+    assertThat(RoleGraphs.get(realm), is(sameInstance(graph)));
+  }
+
+  @Test
+  public void testUsageByTheClientItselfOfTheConfiguredRoleOnly() {
+    RealmFixture fixture = new RealmFixture();
+    String impersonation = fixture.clientRole("realm-management", "impersonation").getId();
+    String impersonator = fixture.clientRole("direct", "impersonator").getId();
+    RealmModel realm = fixture.realm();
+    ClientModel client =
+        fake(
+            ClientModel.class,
+            (method, args) -> {
+              switch (method) {
+                case "getId":
+                case "getClientId":
+                  return "direct";
+                case "getProtocolMappersStream":
+                  return Stream.of(mapper("${clientId}.impersonator"));
+                case "getClientScopes":
+                  return Map.of();
+                default:
+                  throw new UnsupportedOperationException(method);
+              }
+            });
+
+    assertThat(
+        ImpersonatorRolesProtocolMapper.isUsedBy(realm, authSession(client, null), impersonator),
+        is(true));
+    assertThat(
+        ImpersonatorRolesProtocolMapper.isUsedBy(realm, authSession(client, null), impersonation),
+        is(false)); // the note of a different role set is still written
+  }
+
+  private static AuthenticationSessionModel authSession(ClientModel client, String scopeParam) {
+    return fake(
+        AuthenticationSessionModel.class,
+        (method, args) -> {
+          switch (method) {
+            case "getClient":
+              return client;
+            case "getClientNote":
+              return OIDCLoginProtocol.SCOPE_PARAM.equals(args[0]) ? scopeParam : null;
+            default:
+              throw new UnsupportedOperationException(method);
+          }
+        });
+  }
+
+  private static ClientScopeModel clientScope(ProtocolMapperModel... mappers) {
+    return fake(
+        ClientScopeModel.class,
+        (method, args) -> {
+          if (!method.equals("getProtocolMappersStream")) {
+            throw new UnsupportedOperationException(method);
+          }
+          return Stream.of(mappers);
+        });
+  }
+
+  /** Returns a mapper of the role name, or of the default role if null. */
+  private static ProtocolMapperModel mapper(String roleName) {
+    ProtocolMapperModel mapper = new ProtocolMapperModel();
+    mapper.setProtocolMapper(ImpersonatorRolesProtocolMapper.PROVIDER_ID);
+    mapper.setConfig(
+        roleName == null ? Map.of() : Map.of(ImpersonatorRolesProtocolMapper.ROLE_NAME, roleName));
+    return mapper;
+  }
+}
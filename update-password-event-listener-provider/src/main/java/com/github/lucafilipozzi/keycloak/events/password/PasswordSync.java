@@ -0,0 +1,151 @@
+// © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.common.util.Time;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.credential.PasswordCredentialProvider;
+import org.keycloak.credential.PasswordCredentialProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+@JBossLog
+@RequiredArgsConstructor
+class PasswordSync {
+  static final String PASSWORD_SYNC_ATTRIBUTE_NAME = "password-sync";
+
+  private static final String PATTERN = "yyyy-MM-dd HH:mm:ss z";
+
+  private static final String TIMEZONE = "America/Vancouver";
+
+  private static final DateTimeFormatter FORMATTER =
+      DateTimeFormatter.ofPattern(PATTERN).withZone(ZoneId.of(TIMEZONE));
+
+  private final KeycloakSession session;
+
+  private final PasswordSyncGraphs graphs;
+
+  private PasswordCredentialProvider passwordCredentialProvider;
+
+  /** Syncs the source user's password to every user reachable from it in the sync graph. */
+  void sync(RealmModel realm, UserModel sourceUser) {
+    Plan plan = plan(realm, sourceUser);
+    if (plan != null) {
+      plan.getTargetUsernames().forEach(targetUsername -> syncTo(realm, plan, targetUsername));
+    }
+  }
+
+  /**
+   * Returns the targets to which the source user's password must be synced, those already in sync
+   * excepted, or null if there is nothing to sync.
+   */
+  Plan plan(RealmModel realm, UserModel sourceUser) {
+    PasswordSyncGraph graph = graphs.refresh(session, realm, sourceUser);
+
+    Set<String> targetUsernames;
+    try {
+      targetUsernames = graph.closure(sourceUser.getUsername());
+    } catch (IllegalStateException e) {
+      // only reachable if the attribute was written without the password-sync validator
+      LOG.errorf("password not synced from %s (%s)", sourceUser.getUsername(), e.getMessage());
+      return null;
+    }
+    if (targetUsernames.isEmpty()) {
+      return null;
+    }
+
+    PasswordCredentialModel sourceCredential =
+        getPasswordCredentialProvider().getPassword(realm, sourceUser);
+    if (sourceCredential == null) {
+      LOG.debugf("password not synced from %s (no password)", sourceUser.getUsername());
+      return null;
+    }
+
+    // resolve local targets, and their current password, in one query
+    PasswordSyncStore store = new PasswordSyncStore(session);
+    Map<String, PasswordSyncStore.Target> localTargets =
+        store.resolve(realm, targetUsernames).stream()
+            .collect(
+                Collectors.toMap(
+                    PasswordSyncStore.Target::getUsername, target -> target, (a, b) -> a));
+
+    List<String> pendingUsernames = new ArrayList<>();
+    for (String targetUsername : targetUsernames) {
+      PasswordSyncStore.Target target = localTargets.get(targetUsername);
+      if (target != null
+          && target.getFederationLink() == null
+          && sourceCredential.getSecretData().equals(target.getSecretData())) {
+        LOG.debugf(
+            "password not synced from %s to %s (already in sync)",
+            sourceUser.getUsername(), targetUsername);
+      } else {
+        pendingUsernames.add(targetUsername);
+      }
+    }
+
+    String userLabel =
+        "password synced from "
+            + sourceUser.getUsername()
+            + " on "
+            + FORMATTER.format(Instant.ofEpochSecond(Time.currentTime()));
+    return new Plan(sourceUser.getUsername(), sourceCredential, userLabel, pendingUsernames);
+  }
+
+  /**
+   * Syncs the planned password to one target, through the credential provider, which keeps the
+   * password history the realm's policy asks for and evicts the target from the user cache.
+   */
+  void syncTo(RealmModel realm, Plan plan, String targetUsername) {
+    UserModel targetUser = session.users().getUserByUsername(realm, targetUsername);
+    if (targetUser == null) {
+      LOG.debugf(
+          "password not synced from %s to %s (not found)",
+          plan.getSourceUsername(), targetUsername);
+      return;
+    }
+    getPasswordCredentialProvider()
+        .createCredential(
+            realm, targetUser, createTargetCredential(plan.getCredential(), plan.getUserLabel()));
+    LOG.debugf("password synced from %s to %s", plan.getSourceUsername(), targetUsername);
+  }
+
+  private static PasswordCredentialModel createTargetCredential(
+      PasswordCredentialModel sourceCredential, String userLabel) {
+    PasswordCredentialModel targetCredential =
+        PasswordCredentialModel.createFromCredentialModel(sourceCredential);
+    targetCredential.setId(null);
+    targetCredential.setUserLabel(userLabel);
+    return targetCredential;
+  }
+
+  private PasswordCredentialProvider getPasswordCredentialProvider() {
+    if (passwordCredentialProvider == null) {
+      passwordCredentialProvider =
+          (PasswordCredentialProvider)
+              session.getProvider(
+                  CredentialProvider.class, PasswordCredentialProviderFactory.PROVIDER_ID);
+    }
+    return passwordCredentialProvider;
+  }
+
+  /** The password of a source user, and the targets that do not have it yet. */
+  @Value
+  static class Plan {
+    String sourceUsername;
+    PasswordCredentialModel credential;
+    String userLabel;
+    List<String> targetUsernames;
+  }
+}
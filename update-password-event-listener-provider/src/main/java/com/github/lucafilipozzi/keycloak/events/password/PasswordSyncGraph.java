@@ -0,0 +1,176 @@
+// © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+import static com.github.lucafilipozzi.keycloak.events.password.PasswordSync.PASSWORD_SYNC_ATTRIBUTE_NAME;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.Getter;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+/**
+ * The password sync graph of a realm, compiled from the {@code password-sync} attributes of its
+ * users. Edges are kept by username. A graph is immutable: refreshing the edges of a user yields a
+ * new graph, which {@link PasswordSyncGraphs} installs atomically, so that the transitive closure
+ * of each source, memoised per graph, can never be computed from one set of edges and served for
+ * another.
+ */
+final class PasswordSyncGraph {
+  private static final String EDGES_QUERY =
+      "select u.id, u.username, attr.value from UserAttributeEntity attr join attr.user u"
+          + " where u.realmId = :realmId and attr.name = :name";
+
+  @Getter private final long builtAt;
+
+  private final Map<String, String> usernames; // by user id
+
+  private final Map<String, Set<String>> edges; // by username
+
+  private final Map<String, Set<String>> closures = new ConcurrentHashMap<>(); // by username
+
+  private PasswordSyncGraph(
+      long builtAt, Map<String, String> usernames, Map<String, Set<String>> edges) {
+    this.builtAt = builtAt;
+    this.usernames = usernames;
+    this.edges = edges;
+  }
+
+  static PasswordSyncGraph build(KeycloakSession session, RealmModel realm) {
+    return fromRows(
+        session
+            .getProvider(JpaConnectionProvider.class)
+            .getEntityManager()
+            .createQuery(EDGES_QUERY, Object[].class)
+            .setParameter("realmId", realm.getId())
+            .setParameter("name", PASSWORD_SYNC_ATTRIBUTE_NAME)
+            .getResultList());
+  }
+
+  /** Compiles rows of user id, username and {@code password-sync} value. */
+  static PasswordSyncGraph fromRows(List<Object[]> rows) {
+    Map<String, String> usernames = new HashMap<>();
+    Map<String, Set<String>> edges = new HashMap<>();
+    rows.forEach(
+        row -> {
+          String username = (String) row[1];
+          usernames.put((String) row[0], username);
+          Set<String> targets = edges.computeIfAbsent(username, k -> new LinkedHashSet<>());
+          targets.addAll(normalize(Stream.of((String) row[2])));
+          targets.remove(username); // ignore self-references
+        });
+    edges.values().removeIf(Set::isEmpty);
+    return new PasswordSyncGraph(Time.currentTimeMillis(), usernames, edges);
+  }
+
+  static Set<String> normalize(Stream<String> targetUsernames) {
+    return targetUsernames
+        .map(KeycloakModelUtils::toLowerCaseSafe)
+        .map(String::trim)
+        .filter(targetUsername -> !targetUsername.isEmpty())
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+  }
+
+  /**
+   * Returns the graph with the edges of a single user replaced, for instance after its attributes
+   * were updated, or this graph if they are unchanged. The new graph keeps this graph's build time.
+   */
+  PasswordSyncGraph withEdges(String userId, String username, Set<String> targetUsernames) {
+    Set<String> targets = new LinkedHashSet<>(targetUsernames);
+    targets.remove(username); // ignore self-references
+    if (username.equals(usernames.get(userId))
+        && edges.getOrDefault(username, Set.of()).equals(targets)) {
+      return this; // unchanged, keep the memoised closures
+    }
+    Map<String, String> newUsernames = new HashMap<>(usernames);
+    Map<String, Set<String>> newEdges = new HashMap<>(edges);
+    String previousUsername = newUsernames.put(userId, username);
+    if (previousUsername != null) {
+      newEdges.remove(previousUsername);
+    }
+    if (targets.isEmpty()) {
+      newEdges.remove(username);
+    } else {
+      newEdges.put(username, Collections.unmodifiableSet(targets));
+    }
+    return new PasswordSyncGraph(builtAt, newUsernames, newEdges);
+  }
+
+  /** Describes a cycle reachable from the user, or returns null if there is none. */
+  String findCycle(String username) {
+    try {
+      closure(username);
+      return null;
+    } catch (IllegalStateException e) {
+      return e.getMessage();
+    }
+  }
+
+  /**
+   * Returns every user reachable from the source, excluding the source itself.
+   *
+   * @throws IllegalStateException if a cycle is reachable from the source
+   */
+  Set<String> closure(String sourceUsername) {
+    Set<String> closure = closures.get(sourceUsername);
+    if (closure == null) { // computed outside the map, as compute may throw
+      closure = Collections.unmodifiableSet(compute(sourceUsername));
+      closures.putIfAbsent(sourceUsername, closure);
+    }
+    return closure;
+  }
+
+  private Set<String> compute(String sourceUsername) {
+    Set<String> closure = new LinkedHashSet<>();
+    Set<String> done = new HashSet<>();
+    Deque<String> path = new ArrayDeque<>(); // users on the current depth-first path
+    Deque<Iterator<String>> pending = new ArrayDeque<>();
+    path.push(sourceUsername);
+    pending.push(edges.getOrDefault(sourceUsername, Set.of()).iterator());
+    while (!pending.isEmpty()) {
+      Iterator<String> iterator = pending.peek();
+      if (!iterator.hasNext()) {
+        done.add(path.pop());
+        pending.pop();
+        continue;
+      }
+      String next = iterator.next();
+      if (path.contains(next)) {
+        throw new IllegalStateException(describeCycle(path, next));
+      }
+      if (done.contains(next)) {
+        continue;
+      }
+      closure.add(next);
+      path.push(next);
+      pending.push(edges.getOrDefault(next, Set.of()).iterator());
+    }
+    return closure;
+  }
+
+  private static String describeCycle(Deque<String> path, String next) {
+    StringBuilder cycle = new StringBuilder(next);
+    for (Iterator<String> iterator = path.iterator(); iterator.hasNext(); ) {
+      String username = iterator.next();
+      cycle.insert(0, username + " -> ");
+      if (username.equals(next)) {
+        break;
+      }
+    }
+    return "password-sync cycle: " + cycle;
+  }
+}
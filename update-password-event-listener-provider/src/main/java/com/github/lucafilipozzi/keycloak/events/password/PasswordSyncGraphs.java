@@ -0,0 +1,61 @@
+// © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.RequiredArgsConstructor;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Per-node registry of compiled password sync graphs. A graph is built on first use, refreshed
+ * incrementally as this node observes changes to users, and rebuilt once older than {@code
+ * maxAge} so that changes made through other nodes are eventually picked up. Graphs are immutable
+ * and replaced atomically.
+ */
+@RequiredArgsConstructor
+class PasswordSyncGraphs {
+  private final Map<String, PasswordSyncGraph> graphs = new ConcurrentHashMap<>(); // by realm id
+
+  private final long maxAge;
+
+  PasswordSyncGraph get(KeycloakSession session, RealmModel realm) {
+    PasswordSyncGraph graph = graphs.get(realm.getId());
+    if (graph == null || Time.currentTimeMillis() - graph.getBuiltAt() > maxAge) {
+      PasswordSyncGraph built = PasswordSyncGraph.build(session, realm);
+      graph =
+          graphs.merge(
+              realm.getId(),
+              built,
+              (current, candidate) ->
+                  current.getBuiltAt() > candidate.getBuiltAt() ? current : candidate);
+    }
+    return graph;
+  }
+
+  /**
+   * Replaces the user's edges in the realm's graph, building it if need be, and returns the graph.
+   */
+  PasswordSyncGraph refresh(KeycloakSession session, RealmModel realm, UserModel user) {
+    get(session, realm);
+    PasswordSyncGraph graph = refresh(realm, user);
+    return graph != null ? graph : get(session, realm); // invalidated meanwhile
+  }
+
+  /** Replaces the user's edges in the realm's graph, if built, and returns the graph or null. */
+  PasswordSyncGraph refresh(RealmModel realm, UserModel user) {
+    Set<String> targetUsernames =
+        PasswordSyncGraph.normalize(
+            user.getAttributeStream(PasswordSync.PASSWORD_SYNC_ATTRIBUTE_NAME));
+    return graphs.computeIfPresent(
+        realm.getId(),
+        (realmId, graph) -> graph.withEdges(user.getId(), user.getUsername(), targetUsernames));
+  }
+
+  void invalidate(String realmId) {
+    graphs.remove(realmId);
+  }
+}
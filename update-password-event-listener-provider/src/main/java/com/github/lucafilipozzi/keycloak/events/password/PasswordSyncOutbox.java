@@ -0,0 +1,218 @@
+// © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+import static com.github.lucafilipozzi.keycloak.events.password.PasswordSync.PASSWORD_SYNC_ATTRIBUTE_NAME;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.jbosslog.JBossLog;
+import org.apache.commons.lang.math.NumberUtils;
+import org.keycloak.common.util.Time;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.storage.StorageId;
+
+/**
+ * Durable queue of password sync jobs. A job is the {@code password-sync-pending} attribute of a
+ * source user, holding the (fixed width) time at which it was enqueued; applying a job syncs the
+ * source user's current password to its targets, each in a transaction of its own, so re-applying
+ * it is harmless.
+ */
+@JBossLog
+@RequiredArgsConstructor
+class PasswordSyncOutbox implements PasswordSyncOutboxMXBean {
+  static final String PENDING_ATTRIBUTE_NAME = "password-sync-pending";
+
+  static final String ATTEMPTS_ATTRIBUTE_NAME = "password-sync-attempts";
+
+  private static final String PENDING_QUERY =
+      "select u.realmId, u.id, attr.value from UserAttributeEntity attr join attr.user u"
+          + " where attr.name = :name order by attr.value";
+
+  private static final String STATS_QUERY =
+      "select count(attr), min(attr.value) from UserAttributeEntity attr where attr.name = :name";
+
+  private final KeycloakSessionFactory factory;
+
+  private final int batchSize;
+
+  private final int maxAttempts;
+
+  private final PasswordSyncGraphs graphs;
+
+  private final AtomicLong queueDepth = new AtomicLong();
+
+  private final AtomicLong lagMillis = new AtomicLong();
+
+  private final AtomicLong processedCount = new AtomicLong();
+
+  private final AtomicLong failedCount = new AtomicLong();
+
+  /**
+   * Records a sync job on the source user, returning false if the job cannot be recorded there,
+   * because the user is federated and its attributes may be read-only; the caller must then sync
+   * at once.
+   */
+  static boolean enqueue(UserModel sourceUser) {
+    if (sourceUser.getAttributeStream(PASSWORD_SYNC_ATTRIBUTE_NAME).findAny().isEmpty()) {
+      return true; // nothing to sync
+    }
+    if (!StorageId.isLocalStorage(sourceUser.getId()) || sourceUser.getFederationLink() != null) {
+      return false;
+    }
+    sourceUser.setSingleAttribute(PENDING_ATTRIBUTE_NAME, format(Time.currentTimeMillis()));
+    sourceUser.removeAttribute(ATTEMPTS_ATTRIBUTE_NAME);
+    LOG.debugf("password sync from %s enqueued", sourceUser.getUsername());
+    return true;
+  }
+
+  /**
+   * Runs the sync to each target in a transaction of its own, so that a target whose write fails,
+   * and marks its transaction rollback-only, does not undo the writes to the others. Returns the
+   * number of targets that failed.
+   */
+  static int syncEach(
+      KeycloakSessionFactory factory,
+      String sourceUsername,
+      List<String> targetUsernames,
+      BiConsumer<KeycloakSession, String> syncTo) {
+    int failed = 0;
+    for (String targetUsername : targetUsernames) {
+      try {
+        KeycloakModelUtils.runJobInTransaction(
+            factory, session -> syncTo.accept(session, targetUsername));
+      } catch (RuntimeException e) {
+        LOG.warnf(e, "password not synced from %s to %s", sourceUsername, targetUsername);
+        failed++;
+      }
+    }
+    return failed;
+  }
+
+  void process(KeycloakSession session) {
+    List<Object[]> jobs =
+        session
+            .getProvider(JpaConnectionProvider.class)
+            .getEntityManager()
+            .createQuery(PENDING_QUERY, Object[].class)
+            .setParameter("name", PENDING_ATTRIBUTE_NAME)
+            .setMaxResults(batchSize)
+            .getResultList();
+
+    jobs.forEach(job -> apply((String) job[0], (String) job[1], (String) job[2]));
+
+    Object[] stats =
+        session
+            .getProvider(JpaConnectionProvider.class)
+            .getEntityManager()
+            .createQuery(STATS_QUERY, Object[].class)
+            .setParameter("name", PENDING_ATTRIBUTE_NAME)
+            .getSingleResult();
+    long oldest = NumberUtils.toLong((String) stats[1]);
+    queueDepth.set(((Number) stats[0]).longValue());
+    lagMillis.set(oldest > 0L ? Time.currentTimeMillis() - oldest : 0L);
+    LOG.debugf("password sync outbox: depth=%d lag=%dms", queueDepth.get(), lagMillis.get());
+  }
+
+  @Override
+  public long getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  @Override
+  public long getLagMillis() {
+    return lagMillis.get();
+  }
+
+  @Override
+  public long getProcessedCount() {
+    return processedCount.get();
+  }
+
+  @Override
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  private static String format(long time) { // fixed width so that jobs sort by age
+    return String.format("%013d", time);
+  }
+
+  private void apply(String realmId, String userId, String pending) {
+    boolean succeeded;
+    try {
+      AtomicReference<PasswordSync.Plan> plan = new AtomicReference<>();
+      KeycloakModelUtils.runJobInTransaction(
+          factory,
+          session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            UserModel sourceUser = session.users().getUserById(realm, userId);
+            if (sourceUser != null) {
+              session.getContext().setRealm(realm);
+              plan.set(new PasswordSync(session, graphs).plan(realm, sourceUser));
+            }
+          });
+      succeeded =
+          plan.get() == null
+              || syncEach(
+                      factory,
+                      plan.get().getSourceUsername(),
+                      plan.get().getTargetUsernames(),
+                      (session, targetUsername) -> {
+                        RealmModel realm = session.realms().getRealm(realmId);
+                        session.getContext().setRealm(realm);
+                        new PasswordSync(session, graphs).syncTo(realm, plan.get(), targetUsername);
+                      })
+                  == 0;
+    } catch (RuntimeException e) {
+      LOG.warnf(e, "password sync job for userId='%s' failed", userId);
+      succeeded = false;
+    }
+
+    if (succeeded) {
+      processedCount.incrementAndGet();
+      KeycloakModelUtils.runJobInTransaction(
+          factory, session -> complete(session, realmId, userId, pending));
+    } else {
+      failedCount.incrementAndGet();
+      KeycloakModelUtils.runJobInTransaction(
+          factory, session -> recordFailure(session, realmId, userId));
+    }
+  }
+
+  private void complete(KeycloakSession session, String realmId, String userId, String pending) {
+    RealmModel realm = session.realms().getRealm(realmId);
+    UserModel sourceUser = session.users().getUserById(realm, userId);
+    if (sourceUser == null) {
+      return;
+    }
+    if (pending.equals(sourceUser.getFirstAttribute(PENDING_ATTRIBUTE_NAME))) {
+      sourceUser.removeAttribute(PENDING_ATTRIBUTE_NAME); // unless enqueued again
+    }
+    sourceUser.removeAttribute(ATTEMPTS_ATTRIBUTE_NAME);
+  }
+
+  private void recordFailure(KeycloakSession session, String realmId, String userId) {
+    RealmModel realm = session.realms().getRealm(realmId);
+    UserModel sourceUser = session.users().getUserById(realm, userId);
+    if (sourceUser == null) {
+      return;
+    }
+    int attempts = NumberUtils.toInt(sourceUser.getFirstAttribute(ATTEMPTS_ATTRIBUTE_NAME)) + 1;
+    if (attempts < maxAttempts) {
+      sourceUser.setSingleAttribute(ATTEMPTS_ATTRIBUTE_NAME, Integer.toString(attempts));
+      return;
+    }
+    LOG.errorf(
+        "password sync from %s abandoned after %d attempts", sourceUser.getUsername(), attempts);
+    sourceUser.removeAttribute(PENDING_ATTRIBUTE_NAME);
+    sourceUser.removeAttribute(ATTEMPTS_ATTRIBUTE_NAME);
+  }
+}
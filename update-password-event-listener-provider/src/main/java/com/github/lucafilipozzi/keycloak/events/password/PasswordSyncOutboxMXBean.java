@@ -0,0 +1,12 @@
+// © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+public interface PasswordSyncOutboxMXBean {
+  long getQueueDepth();
+
+  long getLagMillis();
+
+  long getProcessedCount();
+
+  long getFailedCount();
+}
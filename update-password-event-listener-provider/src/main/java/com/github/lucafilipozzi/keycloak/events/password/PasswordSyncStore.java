@@ -0,0 +1,50 @@
+// © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
+
+/**
+ * Resolves password sync targets held in local storage, together with their current password
+ * secret, in a single query, so that targets already in sync are skipped without being loaded.
+ */
+@RequiredArgsConstructor
+class PasswordSyncStore {
+  private static final String RESOLVE_QUERY =
+      "select u.id, u.username, u.federationLink, c.secretData"
+          + " from UserEntity u left join u.credentials c on c.type = :type"
+          + " where u.realmId = :realmId and u.username in :usernames";
+
+  private final KeycloakSession session;
+
+  List<Target> resolve(RealmModel realm, Collection<String> usernames) {
+    return getEntityManager()
+        .createQuery(RESOLVE_QUERY, Object[].class)
+        .setParameter("type", PasswordCredentialModel.TYPE)
+        .setParameter("realmId", realm.getId())
+        .setParameter("usernames", usernames)
+        .getResultStream()
+        .map(row -> new Target((String) row[0], (String) row[1], (String) row[2], (String) row[3]))
+        .collect(Collectors.toList());
+  }
+
+  private EntityManager getEntityManager() {
+    return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+  }
+
+  @Value
+  static class Target {
+    String id;
+    String username;
+    String federationLink;
+    String secretData;
+  }
+}
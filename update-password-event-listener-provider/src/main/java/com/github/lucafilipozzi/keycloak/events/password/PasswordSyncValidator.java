@@ -0,0 +1,63 @@
+// © 2024 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+import com.google.auto.service.AutoService;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.stream.Stream;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.userprofile.AttributeContext;
+import org.keycloak.userprofile.UserProfileAttributeValidationContext;
+import org.keycloak.validate.SimpleValidator;
+import org.keycloak.validate.ValidationContext;
+import org.keycloak.validate.ValidationError;
+import org.keycloak.validate.ValidatorConfig;
+import org.keycloak.validate.ValidatorFactory;
+
+/**
+ * User profile validator, for the {@code password-sync} attribute, that rejects a value through
+ * which a cycle would be reachable from the user being updated. The realm's graph is compiled
+ * afresh, rather than taken from {@link PasswordSyncGraphs}, so that edges written through other
+ * nodes are seen.
+ */
+@AutoService(ValidatorFactory.class)
+public class PasswordSyncValidator implements SimpleValidator {
+  public static final String ID = "password-sync-acyclic";
+
+  public static final String MESSAGE_CYCLE = "passwordSyncCycle";
+
+  @Override
+  public String getId() {
+    return ID;
+  }
+
+  @Override
+  public ValidationContext validate(
+      Object input, String inputHint, ValidationContext context, ValidatorConfig config) {
+    AttributeContext attributeContext =
+        UserProfileAttributeValidationContext.from(context).getAttributeContext();
+    UserModel user = attributeContext.getUser();
+    if (user == null) { // being created, so nobody syncs to it yet
+      return context;
+    }
+    KeycloakSession session = attributeContext.getSession();
+    RealmModel realm = session.getContext().getRealm();
+    String cycle =
+        PasswordSyncGraph.build(session, realm)
+            .withEdges(user.getId(), user.getUsername(), PasswordSyncGraph.normalize(values(input)))
+            .findCycle(user.getUsername());
+    if (cycle != null) {
+      context.addError(new ValidationError(ID, inputHint, MESSAGE_CYCLE, cycle));
+    }
+    return context;
+  }
+
+  private static Stream<String> values(Object input) {
+    if (input instanceof Collection) {
+      return ((Collection<?>) input).stream().filter(Objects::nonNull).map(String::valueOf);
+    }
+    return input == null ? Stream.empty() : Stream.of(String.valueOf(input));
+  }
+}
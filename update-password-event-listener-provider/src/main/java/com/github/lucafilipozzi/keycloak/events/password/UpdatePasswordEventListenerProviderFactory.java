@@ -2,34 +2,99 @@
 package com.github.lucafilipozzi.keycloak.events.password;
 
 import com.google.auto.service.AutoService;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import lombok.extern.jbosslog.JBossLog;
 import org.keycloak.Config;
 import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventListenerProviderFactory;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.PostMigrationEvent;
+import org.keycloak.services.scheduled.ClusterAwareScheduledTaskRunner;
+import org.keycloak.timer.TimerProvider;
 
+@JBossLog
 @AutoService(EventListenerProviderFactory.class)
 public class UpdatePasswordEventListenerProviderFactory implements EventListenerProviderFactory {
   public static final String PROVIDER_ID = "update-password";
 
+  private static final String MODE_OUTBOX = "outbox";
+
+  private static final String TASK_INTERVAL = "PT30S";
+
+  private static final String GRAPH_MAX_AGE = "PT5M";
+
+  private static final String OUTBOX_OBJECT_NAME =
+      "com.github.lucafilipozzi.keycloak:type=PasswordSyncOutbox";
+
+  private boolean outbox;
+
+  private long taskInterval;
+
+  private int batchSize;
+
+  private int maxAttempts;
+
+  private PasswordSyncGraphs graphs;
+
   @Override
   public EventListenerProvider create(KeycloakSession session) {
-    return new UpdatePasswordEventListenerProvider(session);
+    return new UpdatePasswordEventListenerProvider(session, outbox, graphs);
   }
 
   @Override
   public void init(Config.Scope config) {
-    // intentionally empty
+    outbox = MODE_OUTBOX.equals(config.get("mode"));
+    taskInterval = Duration.parse(config.get("taskInterval", TASK_INTERVAL)).toMillis();
+    batchSize = config.getInt("batchSize", 100);
+    maxAttempts = config.getInt("maxAttempts", 5);
+    graphs =
+        new PasswordSyncGraphs(Duration.parse(config.get("graphMaxAge", GRAPH_MAX_AGE)).toMillis());
   }
 
   @Override
   public void postInit(KeycloakSessionFactory factory) {
-    // intentionally empty
+    if (!outbox) {
+      return;
+    }
+    PasswordSyncOutbox passwordSyncOutbox =
+        new PasswordSyncOutbox(factory, batchSize, maxAttempts, graphs);
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(passwordSyncOutbox, new ObjectName(OUTBOX_OBJECT_NAME));
+    } catch (JMException e) {
+      LOG.warnf(e, "password sync outbox metrics not registered");
+    }
+    factory.register(
+        event -> {
+          if (event instanceof PostMigrationEvent) {
+            LOG.debug("registering password-sync-outbox-task");
+            ClusterAwareScheduledTaskRunner clusterAwareScheduledTaskRunner =
+                new ClusterAwareScheduledTaskRunner(
+                    factory, passwordSyncOutbox::process, taskInterval);
+            factory
+                .create()
+                .getProvider(TimerProvider.class)
+                .schedule(
+                    clusterAwareScheduledTaskRunner, taskInterval, "password-sync-outbox-task");
+          }
+        });
   }
 
   @Override
   public void close() {
-    // intentionally empty
+    if (!outbox) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .unregisterMBean(new ObjectName(OUTBOX_OBJECT_NAME));
+    } catch (JMException e) {
+      LOG.debugf(e, "password sync outbox metrics not unregistered");
+    }
   }
 
   @Override
@@ -0,0 +1,67 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class PasswordSyncGraphTest {
+  private static PasswordSyncGraph graph(String... edges) { // "source:target" pairs
+    return PasswordSyncGraph.fromRows(
+        Stream.of(edges)
+            .map(edge -> edge.split(":"))
+            .map(edge -> new Object[] {"id-" + edge[0], edge[0], edge[1]})
+            .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testTransitiveClosure() {
+    PasswordSyncGraph graph = graph("alice:bob", "alice:carol", "bob:dave", "carol:dave");
+    assertThat(graph.closure("alice"), containsInAnyOrder("bob", "carol", "dave"));
+    assertThat(graph.closure("bob"), containsInAnyOrder("dave"));
+    assertThat(graph.closure("dave"), is(empty()));
+  }
+
+  @Test
+  public void testNormalizedAndSelfReferencesIgnored() {
+    PasswordSyncGraph graph = graph("alice: Bob ", "alice:alice", "alice: ");
+    assertThat(graph.closure("alice"), containsInAnyOrder("bob"));
+  }
+
+  @Test
+  public void testCycleDetection() {
+    PasswordSyncGraph graph = graph("alice:bob", "bob:carol", "carol:bob", "dave:alice");
+    assertThat(graph.findCycle("alice"), is(equalTo("password-sync cycle: bob -> carol -> bob")));
+    assertThat(graph.findCycle("dave"), is(equalTo("password-sync cycle: bob -> carol -> bob")));
+    assertThat(graph.findCycle("carol"), is(equalTo("password-sync cycle: carol -> bob -> carol")));
+    assertThat(graph("alice:bob").findCycle("alice"), is(nullValue()));
+  }
+
+  @Test
+  public void testWithEdges() {
+    PasswordSyncGraph graph = graph("alice:bob", "bob:carol");
+    assertThat(graph.closure("alice"), containsInAnyOrder("bob", "carol"));
+
+    PasswordSyncGraph refreshed = graph.withEdges("id-bob", "bob", Set.of("dave"));
+    assertThat(refreshed.closure("alice"), containsInAnyOrder("bob", "dave"));
+    assertThat(graph.closure("alice"), containsInAnyOrder("bob", "carol")); // unaffected
+    assertThat(refreshed.getBuiltAt(), is(equalTo(graph.getBuiltAt())));
+
+    assertThat(refreshed.withEdges("id-bob", "bob", Set.of("dave")), is(sameInstance(refreshed)));
+    assertThat(
+        refreshed.withEdges("id-bob", "bob", Set.of()).closure("alice"), containsInAnyOrder("bob"));
+    assertThat(refreshed.withEdges("id-bob", "robert", Set.of("dave")).closure("bob"), is(empty()));
+    assertThat(
+        refreshed.withEdges("id-dave", "dave", Set.of("alice")).findCycle("alice"),
+        is(equalTo("password-sync cycle: alice -> bob -> dave -> alice")));
+  }
+}
@@ -0,0 +1,133 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.events.password;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.UserModel;
+
+public class PasswordSyncOutboxTest {
+  /** Creates sessions whose transactions record, in order, whether they committed. */
+  private static KeycloakSessionFactory factory(List<String> outcomes) {
+    return (KeycloakSessionFactory)
+        Proxy.newProxyInstance(
+            PasswordSyncOutboxTest.class.getClassLoader(),
+            new Class<?>[] {KeycloakSessionFactory.class},
+            (factory, factoryMethod, factoryArgs) -> {
+              if (!factoryMethod.getName().equals("create")) {
+                throw new UnsupportedOperationException(factoryMethod.getName());
+              }
+              boolean[] active = new boolean[1];
+              KeycloakTransactionManager transaction =
+                  (KeycloakTransactionManager)
+                      Proxy.newProxyInstance(
+                          PasswordSyncOutboxTest.class.getClassLoader(),
+                          new Class<?>[] {KeycloakTransactionManager.class},
+                          (proxy, method, args) -> {
+                            switch (method.getName()) {
+                              case "begin":
+                                active[0] = true;
+                                return null;
+                              case "isActive":
+                                return active[0];
+                              case "getRollbackOnly":
+                                return false;
+                              case "commit":
+                              case "rollback":
+                                active[0] = false;
+                                outcomes.add(method.getName());
+                                return null;
+                              default:
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                          });
+              return Proxy.newProxyInstance(
+                  PasswordSyncOutboxTest.class.getClassLoader(),
+                  new Class<?>[] {KeycloakSession.class},
+                  (proxy, method, args) -> {
+                    switch (method.getName()) {
+                      case "getTransactionManager":
+                        return transaction;
+                      case "close":
+                        return null;
+                      default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                  });
+            });
+  }
+
+  private static UserModel user(String id, String federationLink, List<String> writes) {
+    return (UserModel)
+        Proxy.newProxyInstance(
+            PasswordSyncOutboxTest.class.getClassLoader(),
+            new Class<?>[] {UserModel.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getId":
+                  return id;
+                case "getUsername":
+                  return "alice";
+                case "getFederationLink":
+                  return federationLink;
+                case "getAttributeStream":
+                  return Stream.of("bob");
+                case "setSingleAttribute":
+                case "removeAttribute":
+                  writes.add((String) args[0]);
+                  return null;
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  @Test
+  public void testFailingTargetDoesNotRollBackOthers() {
+    List<String> outcomes = new ArrayList<>();
+    List<String> synced = new ArrayList<>();
+    int failed =
+        PasswordSyncOutbox.syncEach(
+            factory(outcomes),
+            "alice",
+            List.of("bob", "carol", "dave"),
+            (session, targetUsername) -> {
+              if (targetUsername.equals("carol")) {
+                throw new IllegalStateException("constraint violation");
+              }
+              synced.add(targetUsername);
+            });
+    assertThat(failed, is(equalTo(1)));
+    assertThat(synced, contains("bob", "dave"));
+    assertThat(outcomes, contains("commit", "rollback", "commit"));
+  }
+
+  @Test
+  public void testEnqueueLocalUser() {
+    List<String> writes = new ArrayList<>();
+    assertThat(PasswordSyncOutbox.enqueue(user("1234", null, writes)), is(true));
+    assertThat(
+        writes,
+        contains(
+            PasswordSyncOutbox.PENDING_ATTRIBUTE_NAME, PasswordSyncOutbox.ATTEMPTS_ATTRIBUTE_NAME));
+  }
+
+  @Test
+  public void testFederatedUserIsNotEnqueued() {
+    List<String> writes = new ArrayList<>();
+    assertThat(PasswordSyncOutbox.enqueue(user("1234", "ldap", writes)), is(false));
+    assertThat(PasswordSyncOutbox.enqueue(user("f:ldap:1234", null, writes)), is(false));
+    assertThat(writes, is(empty()));
+  }
+}
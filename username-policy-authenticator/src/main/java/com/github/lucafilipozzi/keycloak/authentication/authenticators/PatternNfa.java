@@ -0,0 +1,489 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A nondeterministic automaton built, by Thompson's construction, from any number of patterns in
+ * the subset of {@link java.util.regex.Pattern} syntax that describes regular languages: literals,
+ * escapes, {@code .}, character classes (without nesting or intersection), groups (capturing or
+ * not), alternation and greedy or reluctant quantifiers, with {@code ^} and {@code $} accepted at
+ * either end of a pattern. Backreferences, lookaround, possessive quantifiers, inline flags and
+ * the like are rejected, as are character classes holding supplementary characters; strings are
+ * read as UTF-16 code units.
+ *
+ * <p>Each state has at most one edge labelled with a set of characters, held as sorted, disjoint,
+ * inclusive ranges, and any number of epsilon edges.
+ */
+final class PatternNfa {
+  static final int ALLOW = 1;
+
+  static final int DENY = 2;
+
+  static final int MAX_STATES = 100_000;
+
+  static final int MAX_REPETITION = 1_000;
+
+  private static final int MAX_CHAR = Character.MAX_VALUE;
+
+  private static final int[] DIGIT = {'0', '9'};
+
+  private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+
+  private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+
+  private static final int[] DOT =
+      complement(union(List.of(new int[] {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029})));
+
+  private final List<int[]> labels = new ArrayList<>(); // per state; null if none
+
+  private final List<Integer> targets = new ArrayList<>(); // per state, of the labelled edge
+
+  private final List<List<Integer>> epsilons = new ArrayList<>(); // per state
+
+  private final List<Integer> accepts = new ArrayList<>(); // per state: ALLOW, DENY, both or 0
+
+  int newState() {
+    if (labels.size() == MAX_STATES) {
+      throw new IllegalArgumentException("patterns too large");
+    }
+    labels.add(null);
+    targets.add(-1);
+    epsilons.add(new ArrayList<>(2));
+    accepts.add(0);
+    return labels.size() - 1;
+  }
+
+  /**
+   * Adds the pattern, reached from the given state by an epsilon edge, whose final state accepts
+   * with the given kind.
+   *
+   * @throws IllegalArgumentException if the pattern is malformed or uses unsupported syntax
+   */
+  void addPattern(int start, String pattern, int kind) {
+    Parser parser = new Parser(pattern);
+    Node node = parser.parseAlternation();
+    if (parser.position < pattern.length()) {
+      throw parser.error("unbalanced ')'");
+    }
+    Fragment fragment = node.build(this);
+    epsilon(start, fragment.start);
+    accepts.set(fragment.end, accepts.get(fragment.end) | kind);
+  }
+
+  /** Returns whether the pattern is well-formed and in the supported syntax, without adding it. */
+  static boolean isSupported(String pattern) {
+    try {
+      Parser parser = new Parser(pattern);
+      parser.parseAlternation();
+      return parser.position == pattern.length();
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  int size() {
+    return labels.size();
+  }
+
+  int[] getLabel(int state) {
+    return labels.get(state);
+  }
+
+  int getTarget(int state) {
+    return targets.get(state);
+  }
+
+  List<Integer> getEpsilons(int state) {
+    return epsilons.get(state);
+  }
+
+  int getAccept(int state) {
+    return accepts.get(state);
+  }
+
+  /**
+   * Returns the first character of each class of characters that no label distinguishes, in
+   * increasing order, starting with 0.
+   */
+  int[] getClassStarts() {
+    TreeSet<Integer> starts = new TreeSet<>();
+    starts.add(0);
+    for (int[] label : labels) {
+      if (label != null) {
+        for (int i = 0; i < label.length; i += 2) {
+          starts.add(label[i]);
+          if (label[i + 1] < MAX_CHAR) {
+            starts.add(label[i + 1] + 1);
+          }
+        }
+      }
+    }
+    return starts.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private void epsilon(int from, int to) {
+    epsilons.get(from).add(to);
+  }
+
+  private Fragment labelled(int[] label) {
+    int start = newState();
+    int end = newState();
+    labels.set(start, label);
+    targets.set(start, end);
+    return new Fragment(start, end);
+  }
+
+  private Fragment concatenation(Fragment first, Fragment second) {
+    epsilon(first.end, second.start);
+    return new Fragment(first.start, second.end);
+  }
+
+  private Fragment repetition(Node node, int min, int max) {
+    int start = newState();
+    Fragment fragment = new Fragment(start, start);
+    for (int i = 0; i < min; i++) {
+      fragment = concatenation(fragment, node.build(this));
+    }
+    if (max < 0) { // a loop around one more copy
+      int loop = newState();
+      int exit = newState();
+      Fragment inner = node.build(this);
+      epsilon(loop, inner.start);
+      epsilon(loop, exit);
+      epsilon(inner.end, loop);
+      return concatenation(fragment, new Fragment(loop, exit));
+    }
+    for (int i = min; i < max; i++) { // each further copy optional
+      int skip = newState();
+      int exit = newState();
+      Fragment inner = node.build(this);
+      epsilon(skip, inner.start);
+      epsilon(skip, exit);
+      epsilon(inner.end, exit);
+      fragment = concatenation(fragment, new Fragment(skip, exit));
+    }
+    return fragment;
+  }
+
+  private static int[] union(List<int[]> sets) {
+    List<int[]> ranges = new ArrayList<>();
+    for (int[] set : sets) {
+      for (int i = 0; i < set.length; i += 2) {
+        ranges.add(new int[] {set[i], set[i + 1]});
+      }
+    }
+    ranges.sort(Comparator.comparingInt(range -> range[0]));
+    int[] merged = new int[ranges.size() * 2];
+    int length = 0;
+    for (int[] range : ranges) {
+      if (length > 0 && range[0] <= merged[length - 1] + 1) {
+        merged[length - 1] = Math.max(merged[length - 1], range[1]);
+      } else {
+        merged[length++] = range[0];
+        merged[length++] = range[1];
+      }
+    }
+    return Arrays.copyOf(merged, length);
+  }
+
+  private static int[] complement(int[] set) {
+    int[] complement = new int[set.length + 2];
+    int length = 0;
+    int next = 0;
+    for (int i = 0; i < set.length; i += 2) {
+      if (set[i] > next) {
+        complement[length++] = next;
+        complement[length++] = set[i] - 1;
+      }
+      next = set[i + 1] + 1;
+    }
+    if (next <= MAX_CHAR) {
+      complement[length++] = next;
+      complement[length++] = MAX_CHAR;
+    }
+    return Arrays.copyOf(complement, length);
+  }
+
+  private static final class Fragment {
+    private final int start;
+
+    private final int end; // without edges of its own
+
+    private Fragment(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /** A parsed pattern, or part of one, that builds fresh states each time it is built. */
+  private interface Node {
+    Fragment build(PatternNfa nfa);
+  }
+
+  private static final class Parser {
+    private final String source;
+
+    private int position = 0;
+
+    private Parser(String source) {
+      this.source = source;
+    }
+
+    private Node parseAlternation() {
+      List<Node> alternatives = new ArrayList<>();
+      alternatives.add(parseConcatenation());
+      while (peek('|')) {
+        position++;
+        alternatives.add(parseConcatenation());
+      }
+      if (alternatives.size() == 1) {
+        return alternatives.get(0);
+      }
+      return nfa -> {
+        int start = nfa.newState();
+        int end = nfa.newState();
+        for (Node alternative : alternatives) {
+          Fragment fragment = alternative.build(nfa);
+          nfa.epsilon(start, fragment.start);
+          nfa.epsilon(fragment.end, end);
+        }
+        return new Fragment(start, end);
+      };
+    }
+
+    private Node parseConcatenation() {
+      List<Node> items = new ArrayList<>();
+      while (position < source.length() && !peek('|') && !peek(')')) {
+        items.add(parseRepetition());
+      }
+      return nfa -> {
+        int start = nfa.newState();
+        Fragment fragment = new Fragment(start, start);
+        for (Node item : items) {
+          fragment = nfa.concatenation(fragment, item.build(nfa));
+        }
+        return fragment;
+      };
+    }
+
+    private Node parseRepetition() {
+      Node atom = parseAtom();
+      while (position < source.length()) {
+        int min;
+        int max;
+        char c = source.charAt(position);
+        if (c == '{') {
+          int[] bounds = parseBounds();
+          min = bounds[0];
+          max = bounds[1];
+        } else if (c == '*' || c == '+' || c == '?') {
+          min = c == '+' ? 1 : 0;
+          max = c == '?' ? 1 : -1;
+          position++;
+        } else {
+          break;
+        }
+        if (peek('?')) {
+          position++; // reluctant: the same language
+        } else if (peek('+')) {
+          throw error("possessive quantifiers are not supported");
+        }
+        Node repeated = atom;
+        atom = nfa -> nfa.repetition(repeated, min, max);
+      }
+      return atom;
+    }
+
+    /** Parses {@code {n}}, {@code {n,}} or {@code {n,m}}, leaving the position past the '}'. */
+    private int[] parseBounds() {
+      int close = source.indexOf('}', position);
+      if (close < 0) {
+        throw error("unclosed repetition");
+      }
+      String[] bounds = source.substring(position + 1, close).split(",", -1);
+      try {
+        int min = Integer.parseInt(bounds[0]);
+        int max = bounds.length == 1 ? min : bounds[1].isEmpty() ? -1 : Integer.parseInt(bounds[1]);
+        if (bounds.length > 2 || min < 0 || (max >= 0 && max < min)) {
+          throw error("illegal repetition");
+        }
+        if (Math.max(min, max) > MAX_REPETITION) {
+          throw error("repetition exceeds " + MAX_REPETITION);
+        }
+        position = close + 1;
+        return new int[] {min, max};
+      } catch (NumberFormatException e) {
+        throw error("illegal repetition");
+      }
+    }
+
+    private Node parseAtom() {
+      char c = source.charAt(position++);
+      switch (c) {
+        case '(':
+          if (peek('?')) {
+            if (!source.startsWith("?:", position)) {
+              throw error("only (?:...) groups are supported");
+            }
+            position += 2;
+          }
+          Node group = parseAlternation();
+          if (!peek(')')) {
+            throw error("unclosed group");
+          }
+          position++;
+          return group;
+        case '[':
+          return labelled(parseClass());
+        case '.':
+          return labelled(DOT);
+        case '\\':
+          return labelled(parseEscape());
+        case '^':
+          if (position != 1) {
+            throw error("'^' is supported only at the start");
+          }
+          return nfa -> {
+            int state = nfa.newState();
+            return new Fragment(state, state);
+          };
+        case '$':
+          if (position != source.length()) {
+            throw error("'$' is supported only at the end");
+          }
+          return nfa -> {
+            int state = nfa.newState();
+            return new Fragment(state, state);
+          };
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+          throw error("dangling '" + c + "'");
+        default:
+          return labelled(new int[] {c, c});
+      }
+    }
+
+    private int[] parseClass() {
+      boolean negated = peek('^');
+      if (negated) {
+        position++;
+      }
+      List<int[]> sets = new ArrayList<>();
+      for (boolean first = true; ; first = false) {
+        if (position >= source.length()) {
+          throw error("unclosed character class");
+        }
+        char c = source.charAt(position);
+        if (c == ']' && !first) {
+          position++;
+          break;
+        }
+        if (c == '[' || source.startsWith("&&", position)) {
+          throw error("nested character classes are not supported");
+        }
+        int[] low = parseClassCharacter();
+        if (low.length == 2
+            && low[0] == low[1]
+            && peek('-')
+            && position + 1 < source.length()
+            && source.charAt(position + 1) != ']') {
+          position++;
+          int[] high = parseClassCharacter();
+          if (high.length != 2 || high[0] != high[1] || high[0] < low[0]) {
+            throw error("illegal character range");
+          }
+          sets.add(new int[] {low[0], high[0]});
+        } else {
+          sets.add(low);
+        }
+      }
+      int[] set = union(sets);
+      return negated ? complement(set) : set;
+    }
+
+    private int[] parseClassCharacter() {
+      char c = source.charAt(position++);
+      if (c == '\\') {
+        return parseEscape();
+      }
+      if (Character.isSurrogate(c)) {
+        throw error("supplementary characters are not supported in character classes");
+      }
+      return new int[] {c, c};
+    }
+
+    private int[] parseEscape() {
+      if (position >= source.length()) {
+        throw error("trailing '\\'");
+      }
+      char c = source.charAt(position++);
+      switch (c) {
+        case 'd':
+          return DIGIT;
+        case 'D':
+          return complement(DIGIT);
+        case 'w':
+          return WORD;
+        case 'W':
+          return complement(WORD);
+        case 's':
+          return SPACE;
+        case 'S':
+          return complement(SPACE);
+        case 't':
+          return new int[] {'\t', '\t'};
+        case 'n':
+          return new int[] {'\n', '\n'};
+        case 'r':
+          return new int[] {'\r', '\r'};
+        case 'f':
+          return new int[] {'\f', '\f'};
+        case 'a':
+          return new int[] {0x07, 0x07};
+        case 'e':
+          return new int[] {0x1B, 0x1B};
+        case 'x':
+          return parseHex(2);
+        case 'u':
+          return parseHex(4);
+        default:
+          if (Character.isLetterOrDigit(c)) {
+            throw error("'\\" + c + "' is not supported");
+          }
+          return new int[] {c, c};
+      }
+    }
+
+    private int[] parseHex(int digits) {
+      if (position + digits > source.length()) {
+        throw error("illegal hexadecimal escape");
+      }
+      try {
+        int c = Integer.parseInt(source.substring(position, position + digits), 16);
+        position += digits;
+        return new int[] {c, c};
+      } catch (NumberFormatException e) {
+        throw error("illegal hexadecimal escape");
+      }
+    }
+
+    private static Node labelled(int[] label) {
+      return nfa -> nfa.labelled(label);
+    }
+
+    private boolean peek(char c) {
+      return position < source.length() && source.charAt(position) == c;
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at " + position + " in '" + source + "'");
+    }
+  }
+}
@@ -0,0 +1,301 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import lombok.extern.jbosslog.JBossLog;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.Constants;
+
+/**
+ * The allow and deny patterns of a username policy compiled into a single deterministic automaton,
+ * so that a username is checked against all of them in one pass, in time linear in its length
+ * whatever the patterns: there is no backtracking to exploit. A username is accepted if it matches
+ * (in full) any allow pattern, or there are none, and no deny pattern.
+ *
+ * <p>The single legacy pattern, an allow pattern of earlier versions, is compiled into the automaton
+ * like any other if it is in the supported syntax. Otherwise it is matched with {@link Pattern},
+ * so that it keeps the full syntax it was written in (flags, Unicode properties, word boundaries
+ * and so on) but not the linear time, and a warning is logged when such a policy is compiled.
+ *
+ * <p>Policies are compiled once per node by authenticator config, stamped with the hash of the
+ * config: editing the config changes the stamp and the policy is compiled anew. A config that fails
+ * to compile is remembered under its stamp too, so that it is not compiled again on every login.
+ * See {@link PatternNfa} for the supported pattern syntax.
+ */
+@JBossLog
+final class UsernamePolicy {
+  static final String PATTERN = "pattern";
+
+  static final String ALLOW_PATTERNS = "allowPatterns";
+
+  static final String DENY_PATTERNS = "denyPatterns";
+
+  static final int MAX_STATES = 10_000;
+
+  private static final Map<String, Stamped> CACHE = new ConcurrentHashMap<>();
+
+  private final int[] classStarts; // first character of each class of characters
+
+  private final int[] asciiClasses; // class of each ASCII character
+
+  private final int[] transitions; // by state * classes + class
+
+  private final boolean[] accepting; // by state
+
+  private final boolean[] denying; // by state: a deny pattern matches
+
+  private final int deadState; // from which no pattern matches; -1 if unreachable
+
+  private final Pattern legacyPattern; // null if none
+
+  private UsernamePolicy(
+      int[] classStarts,
+      int[] transitions,
+      boolean[] accepting,
+      boolean[] denying,
+      int deadState,
+      Pattern legacyPattern) {
+    this.classStarts = classStarts;
+    this.transitions = transitions;
+    this.accepting = accepting;
+    this.denying = denying;
+    this.deadState = deadState;
+    this.legacyPattern = legacyPattern;
+    this.asciiClasses = new int[128];
+    for (char c = 0; c < 128; c++) {
+      asciiClasses[c] = classOf(c);
+    }
+  }
+
+  /** Returns the policy of the authenticator config, or null if it is misconfigured. */
+  static UsernamePolicy resolve(AuthenticatorConfigModel configModel) {
+    Map<String, String> config = configModel.getConfig();
+    int stamp = config.hashCode();
+    Stamped stamped = CACHE.get(configModel.getId());
+    if (stamped == null || stamped.stamp != stamp) {
+      stamped = new Stamped(stamp, fromConfig(configModel.getAlias(), config));
+      CACHE.put(configModel.getId(), stamped);
+    }
+    return stamped.policy;
+  }
+
+  /**
+   * Compiles the patterns into a policy.
+   *
+   * @throws IllegalArgumentException if a pattern is malformed or uses unsupported syntax, or the
+   *     automaton would exceed {@link #MAX_STATES} states
+   */
+  static UsernamePolicy compile(List<String> allowPatterns, List<String> denyPatterns) {
+    return compile(allowPatterns, denyPatterns, null);
+  }
+
+  /**
+   * Compiles the patterns and the legacy pattern, if not null, into a policy: into the automaton, as
+   * an allow pattern, if its syntax is supported, and into a {@link Pattern} otherwise.
+   *
+   * @throws IllegalArgumentException as {@link #compile(List, List)} does, or if the legacy pattern
+   *     is not a valid {@link Pattern}
+   */
+  static UsernamePolicy compile(
+      List<String> allowPatterns, List<String> denyPatterns, String legacyPattern) {
+    if (legacyPattern == null) {
+      return build(allowPatterns, denyPatterns, null);
+    }
+    if (PatternNfa.isSupported(legacyPattern)) {
+      List<String> patterns = new ArrayList<>(allowPatterns);
+      patterns.add(legacyPattern);
+      return build(patterns, denyPatterns, null);
+    }
+    return build(allowPatterns, denyPatterns, Pattern.compile(legacyPattern));
+  }
+
+  /** Returns whether a legacy pattern outside the supported syntax is matched with a regex. */
+  boolean isBacktracking() {
+    return legacyPattern != null;
+  }
+
+  boolean accepts(String username) {
+    int classes = classStarts.length;
+    int state = 0;
+    for (int i = 0; i < username.length() && state != deadState; i++) {
+      char c = username.charAt(i);
+      state = transitions[state * classes + (c < 128 ? asciiClasses[c] : classOf(c))];
+    }
+    return accepting[state]
+        || (legacyPattern != null && !denying[state] && legacyPattern.matcher(username).matches());
+  }
+
+  int getStateCount() {
+    return accepting.length;
+  }
+
+  private int classOf(char c) {
+    int index = Arrays.binarySearch(classStarts, c);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /** Returns the policy of the config, or null, having logged why, if it is misconfigured. */
+  private static UsernamePolicy fromConfig(String alias, Map<String, String> config) {
+    List<String> allowPatterns = split(config.get(ALLOW_PATTERNS));
+    List<String> denyPatterns = split(config.get(DENY_PATTERNS));
+    String legacyPattern = config.get(PATTERN);
+    if (legacyPattern != null && legacyPattern.isEmpty()) {
+      legacyPattern = null;
+    }
+    if (allowPatterns.isEmpty() && denyPatterns.isEmpty() && legacyPattern == null) {
+      LOG.warnf("username policy '%s' has no patterns", alias);
+      return null;
+    }
+    try {
+      UsernamePolicy policy = compile(allowPatterns, denyPatterns, legacyPattern);
+      if (policy.isBacktracking()) {
+        LOG.warnf(
+            "username policy '%s' matches its %s, outside the supported syntax, with"
+                + " java.util.regex, in time that may grow exponentially with the username",
+            alias, PATTERN);
+      }
+      return policy;
+    } catch (IllegalArgumentException e) {
+      LOG.warnf("username policy '%s' not usable: %s", alias, e.getMessage());
+      return null;
+    }
+  }
+
+  private static UsernamePolicy build(
+      List<String> allowPatterns, List<String> denyPatterns, Pattern legacyPattern) {
+    PatternNfa nfa = new PatternNfa();
+    int start = nfa.newState();
+    for (String pattern : allowPatterns) {
+      nfa.addPattern(start, pattern, PatternNfa.ALLOW);
+    }
+    for (String pattern : denyPatterns) {
+      nfa.addPattern(start, pattern, PatternNfa.DENY);
+    }
+    boolean allowAll = allowPatterns.isEmpty() && legacyPattern == null;
+
+    // the classes each labelled edge covers, as the first and last class
+    int[] classStarts = nfa.getClassStarts();
+    int classes = classStarts.length;
+    int[][] covered = new int[nfa.size()][];
+    for (int state = 0; state < nfa.size(); state++) {
+      int[] label = nfa.getLabel(state);
+      if (label != null) {
+        covered[state] = new int[label.length];
+        for (int i = 0; i < label.length; i += 2) {
+          covered[state][i] = Arrays.binarySearch(classStarts, label[i]);
+          int next = Arrays.binarySearch(classStarts, label[i + 1] + 1);
+          covered[state][i + 1] = next >= 0 ? next - 1 : classes - 1;
+        }
+      }
+    }
+
+    // subset construction, the start state first
+    Map<BitSet, Integer> ids = new HashMap<>();
+    List<BitSet> sets = new ArrayList<>();
+    BitSet initial = new BitSet(nfa.size());
+    initial.set(start);
+    close(nfa, initial);
+    ids.put(initial, 0);
+    sets.add(initial);
+    int[] transitions = new int[classes * 16];
+    for (int id = 0; id < sets.size(); id++) {
+      BitSet[] nexts = new BitSet[classes];
+      BitSet set = sets.get(id);
+      for (int state = set.nextSetBit(0); state >= 0; state = set.nextSetBit(state + 1)) {
+        int[] ranges = covered[state];
+        if (ranges != null) {
+          for (int i = 0; i < ranges.length; i += 2) {
+            for (int k = ranges[i]; k <= ranges[i + 1]; k++) {
+              if (nexts[k] == null) {
+                nexts[k] = new BitSet(nfa.size());
+              }
+              nexts[k].set(nfa.getTarget(state));
+            }
+          }
+        }
+      }
+      if (transitions.length < (id + 1) * classes) {
+        transitions = Arrays.copyOf(transitions, transitions.length * 2);
+      }
+      for (int k = 0; k < classes; k++) {
+        BitSet next = nexts[k] == null ? new BitSet() : close(nfa, nexts[k]);
+        Integer nextId = ids.get(next);
+        if (nextId == null) {
+          if (sets.size() == MAX_STATES) {
+            throw new IllegalArgumentException("patterns too complex");
+          }
+          nextId = sets.size();
+          ids.put(next, nextId);
+          sets.add(next);
+        }
+        transitions[id * classes + k] = nextId;
+      }
+    }
+
+    boolean[] accepting = new boolean[sets.size()];
+    boolean[] denying = new boolean[sets.size()];
+    for (int id = 0; id < sets.size(); id++) {
+      int accept = 0;
+      BitSet set = sets.get(id);
+      for (int state = set.nextSetBit(0); state >= 0; state = set.nextSetBit(state + 1)) {
+        accept |= nfa.getAccept(state);
+      }
+      denying[id] = (accept & PatternNfa.DENY) != 0;
+      accepting[id] = (allowAll || (accept & PatternNfa.ALLOW) != 0) && !denying[id];
+    }
+    Integer deadState = ids.get(new BitSet());
+    return new UsernamePolicy(
+        classStarts,
+        Arrays.copyOf(transitions, sets.size() * classes),
+        accepting,
+        denying,
+        deadState == null ? -1 : deadState,
+        legacyPattern);
+  }
+
+  /** Adds to the set every state reachable from it by epsilon edges, returning it. */
+  private static BitSet close(PatternNfa nfa, BitSet set) {
+    Deque<Integer> pending = new ArrayDeque<>();
+    set.stream().forEach(pending::push);
+    while (!pending.isEmpty()) {
+      for (int next : nfa.getEpsilons(pending.pop())) {
+        if (!set.get(next)) {
+          set.set(next);
+          pending.push(next);
+        }
+      }
+    }
+    return set;
+  }
+
+  private static List<String> split(String patterns) {
+    if (patterns == null || patterns.isEmpty()) {
+      return new ArrayList<>();
+    }
+    return Arrays.stream(Constants.CFG_DELIMITER_PATTERN.split(patterns))
+        .filter(pattern -> !pattern.isEmpty())
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  /** A policy, or null if the config is misconfigured, and the stamp of the config. */
+  private static final class Stamped {
+    private final int stamp;
+
+    private final UsernamePolicy policy;
+
+    private Stamped(int stamp, UsernamePolicy policy) {
+      this.stamp = stamp;
+      this.policy = policy;
+    }
+  }
+}
@@ -28,13 +28,14 @@ public class UsernamePolicyAuthenticator implements Authenticator {
   @Override
   public void authenticate(AuthenticationFlowContext context) {
     AuthenticatorConfigModel authenticatorConfig = context.getAuthenticatorConfig();
-    if (authenticatorConfig == null) {
+    UsernamePolicy policy =
+        authenticatorConfig == null ? null : UsernamePolicy.resolve(authenticatorConfig);
+    if (policy == null) {
       Response response =
           context.form().setError("Server Misconfiguration").createErrorPage(INTERNAL_SERVER_ERROR);
       context.failureChallenge(INTERNAL_ERROR, response);
       return;
     }
-    String pattern = authenticatorConfig.getConfig().get("pattern");
 
     AuthenticationSessionModel authSession = context.getAuthenticationSession();
     SerializedBrokeredIdentityContext serializedCtx =
@@ -42,7 +43,7 @@ public class UsernamePolicyAuthenticator implements Authenticator {
             authSession, BROKERED_CONTEXT_NOTE);
     String username = serializedCtx.getUsername();
 
-    if (!username.matches(pattern)) {
+    if (!policy.accepts(username)) {
       Response response =
           context.form().setError("Invalid Username").createErrorPage(NOT_ACCEPTABLE);
       context.failureChallenge(INVALID_USER, response);
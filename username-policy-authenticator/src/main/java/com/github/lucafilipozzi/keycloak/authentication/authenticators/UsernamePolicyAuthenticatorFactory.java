@@ -32,10 +32,22 @@ public class UsernamePolicyAuthenticatorFactory implements AuthenticatorFactory
     CONFIG_PROPERTIES =
         ProviderConfigurationBuilder.create()
             .property()
-            .name("pattern")
+            .name(UsernamePolicy.PATTERN)
             .type(ProviderConfigProperty.STRING_TYPE)
             .label("pattern")
-            .helpText("provide pattern to validate against")
+            .helpText("provide pattern to validate against (legacy; prefer allow patterns)")
+            .add()
+            .property()
+            .name(UsernamePolicy.ALLOW_PATTERNS)
+            .type(ProviderConfigProperty.MULTIVALUED_STRING_TYPE)
+            .label("allow patterns")
+            .helpText("provide patterns of which usernames must match at least one")
+            .add()
+            .property()
+            .name(UsernamePolicy.DENY_PATTERNS)
+            .type(ProviderConfigProperty.MULTIVALUED_STRING_TYPE)
+            .label("deny patterns")
+            .helpText("provide patterns of which usernames must match none")
             .add()
             .build();
   }
@@ -0,0 +1,95 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares checking a username against a pattern with {@link String#matches}, as the authenticator
+ * did, with a precompiled {@link Pattern} and with the compiled username policy, whether the pattern
+ * is configured as an allow pattern or as the legacy pattern.
+ *
+ * <p>The pattern, {@code ([a-z0-9]+[._-]?)+}, describes dot-, underscore- or dash-separated words.
+ * A {@code typical} username of {@code length} characters matches it; an {@code adversarial} one,
+ * {@code length} letters followed by {@code !}, does not, but only after a backtracking matcher
+ * has tried every way of splitting the letters into words.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class UsernamePolicyBenchmark {
+  private static final String PATTERN = "([a-z0-9]+[._-]?)+";
+
+  @Param({"typical", "adversarial"})
+  private String kind;
+
+  @Param({"16", "24"})
+  private int length;
+
+  private String username;
+
+  private Pattern pattern;
+
+  private UsernamePolicy policy;
+
+  private UsernamePolicy legacyPolicy;
+
+  @Setup
+  public void setup() {
+    username =
+        kind.equals("typical")
+            ? "alice.smith-0123456789abcdef".substring(0, length)
+            : "a".repeat(length) + "!";
+    pattern = Pattern.compile(PATTERN);
+    policy = UsernamePolicy.compile(List.of(PATTERN), List.of());
+    legacyPolicy = UsernamePolicy.compile(List.of(), List.of(), PATTERN);
+  }
+
+  @Benchmark
+  public boolean byStringMatches() {
+    return username.matches(PATTERN);
+  }
+
+  @Benchmark
+  public boolean byPattern() {
+    return pattern.matcher(username).matches();
+  }
+
+  @Benchmark
+  public boolean byPolicy() {
+    return policy.accepts(username);
+  }
+
+  @Benchmark
+  public boolean byLegacyPolicy() {
+    return legacyPolicy.accepts(username);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(UsernamePolicyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
@@ -0,0 +1,178 @@
+// © 2025 Luca Filipozzi. Some rights reserved. See LICENSE.
+package com.github.lucafilipozzi.keycloak.authentication.authenticators;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThrows;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.keycloak.models.AuthenticatorConfigModel;
+
+public class UsernamePolicyTest {
+  private static final List<String> PATTERNS =
+      List.of(
+          "[a-z][a-z0-9._-]{2,7}",
+          "^\\w+@(?:example\\.(com|org))$",
+          "(ab|a)*b?",
+          "[^aeiou\\d]+",
+          "a.c",
+          "x{2}y{1,}z{0,2}",
+          "[\\u0041-\\x5A]+",
+          "",
+          "(a*)*",
+          "\\s?[-.]\\*+?");
+
+  private static final List<String> USERNAMES =
+      List.of(
+          "",
+          "a",
+          "ab",
+          "abc",
+          "abbb",
+          "a\nc",
+          "a.c",
+          "alice",
+          "alice.smith",
+          "bob-9",
+          "x1",
+          "ABC",
+          "xxyyyz",
+          "xxz",
+          "xxyzzz",
+          "alice@example.com",
+          "alice@example.org",
+          "alice@example.net",
+          "bcdfg",
+          "bcd2",
+          " -**",
+          ".*",
+          "é");
+
+  @Test
+  public void testMatchesAsJavaRegexDoes() {
+    for (String pattern : PATTERNS) {
+      UsernamePolicy policy = UsernamePolicy.compile(List.of(pattern), List.of());
+      for (String username : USERNAMES) {
+        assertThat(
+            pattern + " ~ " + username,
+            policy.accepts(username),
+            is(Pattern.matches(pattern, username)));
+      }
+    }
+  }
+
+  @Test
+  public void testAllowAndDenyPatterns() {
+    UsernamePolicy policy =
+        UsernamePolicy.compile(
+            List.of("[a-z]+", "[a-z]+\\.[a-z]+"), List.of("admin.*", ".*root.*", "[a-z]"));
+
+    assertThat(policy.accepts("alice"), is(true));
+    assertThat(policy.accepts("alice.smith"), is(true));
+    assertThat(policy.accepts("administrator"), is(false));
+    assertThat(policy.accepts("groot"), is(false));
+    assertThat(policy.accepts("a"), is(false));
+    assertThat(policy.accepts("Alice"), is(false));
+
+    UsernamePolicy denyOnly = UsernamePolicy.compile(List.of(), List.of(".*[<>\"'].*"));
+    assertThat(denyOnly.accepts("alice"), is(true));
+    assertThat(denyOnly.accepts("<script>"), is(false));
+  }
+
+  @Test
+  public void testAdversarialInputsAreMatchedInLinearTime() {
+    UsernamePolicy policy =
+        UsernamePolicy.compile(List.of("(a+)+b", "(a|aa)+c", "(.*a){12}"), List.of());
+
+    String username = "a".repeat(100_000) + "!";
+    long start = System.nanoTime();
+    assertThat(policy.accepts(username), is(false));
+    assertThat(System.nanoTime() - start < 1_000_000_000L, is(true));
+    assertThat(policy.accepts("a".repeat(100_000) + "b"), is(true));
+  }
+
+  @Test
+  public void testUnsupportedOrOversizedPatternsAreRejected() {
+    for (String pattern :
+        List.of("(a)\\1", "a(?=b)", "a(?!b)", "a*+", "(?i)a", "\\p{Alpha}", "[a[b]]", "[a&&b]")) {
+      assertThrows(
+          pattern,
+          IllegalArgumentException.class,
+          () -> UsernamePolicy.compile(List.of(pattern), List.of()));
+    }
+    for (String pattern : List.of("(a", "a)", "[a", "a{2", "a{3,2}", "*a", "\\")) {
+      assertThrows(
+          pattern,
+          IllegalArgumentException.class,
+          () -> UsernamePolicy.compile(List.of(pattern), List.of()));
+    }
+    assertThrows( // the DFA of this pattern has 2^15 states
+        IllegalArgumentException.class,
+        () -> UsernamePolicy.compile(List.of("[ab]*a[ab]{14}"), List.of()));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> UsernamePolicy.compile(List.of("((a{1000}){1000}){1000}"), List.of()));
+  }
+
+  @Test
+  public void testLegacyPatternKeepsTheFullSyntax() {
+    UsernamePolicy policy =
+        UsernamePolicy.compile(List.of(), List.of(".*admin.*"), "(?i)\\p{Alpha}+\\b");
+    assertThat(policy.isBacktracking(), is(true));
+
+    assertThat(policy.accepts("Alice"), is(true));
+    assertThat(policy.accepts("alice1"), is(false));
+    assertThat(policy.accepts("Administrator"), is(true)); // the deny pattern is case-sensitive
+    assertThat(policy.accepts("sysadmin"), is(false));
+
+    UsernamePolicy withAllowPatterns =
+        UsernamePolicy.compile(List.of("[a-z]+[0-9]"), List.of(), "(?i)[a-z]+");
+    assertThat(withAllowPatterns.accepts("alice1"), is(true));
+    assertThat(withAllowPatterns.accepts("ALICE"), is(true));
+    assertThat(withAllowPatterns.accepts("ALICE1"), is(false));
+
+    assertThrows(
+        IllegalArgumentException.class, () -> UsernamePolicy.compile(List.of(), List.of(), "(a"));
+  }
+
+  @Test
+  public void testLegacyPatternInTheSupportedSyntaxIsMatchedInLinearTime() {
+    UsernamePolicy policy =
+        UsernamePolicy.compile(List.of(), List.of("admin.*"), "([a-z0-9]+[._-]?)+");
+    assertThat(policy.isBacktracking(), is(false));
+
+    String username = "a".repeat(100_000) + "!";
+    long start = System.nanoTime();
+    assertThat(policy.accepts(username), is(false));
+    assertThat(System.nanoTime() - start < 1_000_000_000L, is(true));
+    assertThat(policy.accepts("alice.smith-01"), is(true));
+    assertThat(policy.accepts("administrator"), is(false));
+  }
+
+  @Test
+  public void testResolveCachesPoliciesAndFailuresByConfig() {
+    Map<String, String> config = new HashMap<>();
+    config.put(UsernamePolicy.ALLOW_PATTERNS, "(a)\\1");
+    AuthenticatorConfigModel configModel = new AuthenticatorConfigModel();
+    configModel.setId("resolve");
+    configModel.setAlias("resolve");
+    configModel.setConfig(config);
+
+    assertThat(UsernamePolicy.resolve(configModel), is(nullValue()));
+    assertThat(UsernamePolicy.resolve(configModel), is(nullValue()));
+
+    config.put(UsernamePolicy.ALLOW_PATTERNS, "[a-z]+");
+    UsernamePolicy policy = UsernamePolicy.resolve(configModel);
+    assertThat(policy.accepts("alice"), is(true));
+    assertThat(UsernamePolicy.resolve(configModel), is(sameInstance(policy)));
+
+    config.put(UsernamePolicy.PATTERN, "[a-z]+\\.[a-z]+");
+    assertThat(UsernamePolicy.resolve(configModel).accepts("alice.smith"), is(true));
+  }
+}